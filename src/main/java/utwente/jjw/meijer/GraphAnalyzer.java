@@ -5,10 +5,14 @@ import java.io.IOException;
 
 import it.unimi.dsi.webgraph.BVGraph;
 import it.unimi.dsi.webgraph.ImmutableGraph;
+import utwente.jjw.meijer.hll.SketchType;
 import utwente.jjw.meijer.hyperball.BfsTraversal;
 import utwente.jjw.meijer.hyperball.DistanceDistribution;
+import utwente.jjw.meijer.hyperball.GeometricCentralities;
 import utwente.jjw.meijer.hyperball.Graphs;
 import utwente.jjw.meijer.hyperball.HyperBall;
+import utwente.jjw.meijer.hyperball.MultiSourceBfs;
+import utwente.jjw.meijer.hyperball.NodeOrdering;
 import utwente.jjw.meijer.utilities.Utilities;
 
 /**
@@ -23,10 +27,12 @@ public class GraphAnalyzer
     
     public static final String BFS_KEY = "bfs";
     public static final String HYPERBALL_KEY = "hyperball";
+    public static final String CENTRALITIES_KEY = "centralities";
 
 
 
     public static final int NUMBER_OF_BITS_HYPERBALL = 5; // Number of bits to use for register indexing in the hyperball algorithm.
+    public static final int NUMBER_OF_THREADS_HYPERBALL = Runtime.getRuntime().availableProcessors(); // Number of threads used by the hyperball algorithm.
 
 
     /**
@@ -51,7 +57,7 @@ public class GraphAnalyzer
     {
         final String FILE_NAME = HYPERBALL_KEY;
 
-        HyperBall ball = new HyperBall(graph, NUMBER_OF_BITS_HYPERBALL);
+        HyperBall ball = new HyperBall(graph, NUMBER_OF_BITS_HYPERBALL, NUMBER_OF_THREADS_HYPERBALL);
 
         System.out.printf("Analyzing graph: %s containing %d nodes with HyperBall\n", resultsFolder, graph.numNodes());
         long start = System.currentTimeMillis();
@@ -76,7 +82,7 @@ public class GraphAnalyzer
         String baseName = Graphs.getBasename(graph);
         String resultsFolder = baseName + File.separator;
 
-        HyperBall ball = new HyperBall(graph, b);
+        HyperBall ball = new HyperBall(graph, b, NUMBER_OF_THREADS_HYPERBALL);
 
         System.out.printf("Analyzing graph: %s containing %d nodes with HyperBall using %d registers.\n", resultsFolder, graph.numNodes(), numberReg);
         long start = System.currentTimeMillis();
@@ -94,6 +100,122 @@ public class GraphAnalyzer
     }
 
 
+    /**
+     * Computes the geometric centralities of a BVGraph with HyperBall. HyperBall is run on the transposed graph, so the
+     * centralities are based on the distances towards each node.
+     * @param graph Graph to analyze.
+     */
+    public static void analyzeCentralitiesWithHyperball(BVGraph graph)
+    {
+        analyzeCentralitiesWithHyperball(graph, null);
+    }
+
+    /**
+     * Computes the geometric centralities of a BVGraph with HyperBall on the graph relabeled in an order that gives
+     * neighbours nearby IDs, see Graphs.loadRelabeledGraph(). The centralities are saved for the original node IDs.
+     * @param graph Graph to analyze.
+     * @param ordering Order to relabel the graph in, null to keep the IDs of the graph.
+     */
+    public static void analyzeCentralitiesWithHyperball(BVGraph graph, NodeOrdering ordering)
+    {
+        String baseName = Graphs.getBasename(graph);
+        String resultsFolder = baseName + File.separator;
+        String filePath = RESUTLS_DIRECTORY + resultsFolder + File.separator + CENTRALITIES_KEY;
+
+        try {
+            BVGraph relabeled = ordering == null ? graph : Graphs.loadRelabeledGraph(graph, ordering);
+            HyperBall ball = new HyperBall(Graphs.loadTransposeGraph(relabeled), NUMBER_OF_BITS_HYPERBALL, NUMBER_OF_THREADS_HYPERBALL);
+            ball.setComputeCentralities(true);
+
+            System.out.printf("Computing centralities of graph: %s containing %d nodes with HyperBall\n", resultsFolder, graph.numNodes());
+            long start = System.currentTimeMillis();
+            ball.getDistanceDistribution();
+            long end = System.currentTimeMillis();
+            System.out.printf("Analysis Done\nTime taken: %dms\n", end - start);
+            System.out.println("Saving results to disk\n");
+
+            GeometricCentralities centralities = ball.getCentralities();
+            if (ordering != null) centralities = new GeometricCentralities(centralities, Graphs.loadPermutation(relabeled));
+            File centralitiesFile = new File(filePath + ".gc");
+            if (!centralitiesFile.getParentFile().exists()) centralitiesFile.getParentFile().mkdirs();
+            GeometricCentralities.saveToDisk(centralitiesFile, centralities);
+        } catch (IOException e) {
+            System.err.println("An error has occurred while computing the centralities");
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     * Runs hyperball once with 2^b registers and stores the distance distribution of every number of registers from
+     * 2^minimumB to 2^b, obtained by folding the counters. Gives the same files as running
+     * analyzeGraphWithHyperball(graph, b) for every b, in a single pass.
+     * @param graph graph to analyze.
+     * @param b largest number of bits to use for register indexing.
+     * @param minimumB smallest number of bits, at least 4.
+     */
+    public static void analyzeGraphWithHyperball(BVGraph graph, int b, int minimumB)
+    {
+        String baseName = Graphs.getBasename(graph);
+        String resultsFolder = baseName + File.separator;
+
+        HyperBall ball = new HyperBall(graph, b, NUMBER_OF_THREADS_HYPERBALL);
+        ball.setMinimumNumberOfBits(minimumB);
+
+        System.out.printf("Analyzing graph: %s containing %d nodes with HyperBall using %d down to %d registers.\n", resultsFolder, graph.numNodes(), 1 << b, 1 << minimumB);
+        long start = System.currentTimeMillis();
+        ball.getDistanceDistribution();
+        long end = System.currentTimeMillis();
+        System.out.printf("Analysis Done\nTime taken: %dms\n", end - start);
+        System.out.println("Saving results to disk\n");
+
+        final String FILE_NAME = HYPERBALL_KEY;
+        for (int bits = minimumB; bits <= b; bits++){
+            DistanceDistribution dist = ball.getDistanceDistributionEstimate(bits).getMeanDistribution();
+            String filePath = RESUTLS_DIRECTORY + resultsFolder + File.separator + FILE_NAME + "-" + (1 << bits);
+            saveDistanceDistributionAnalysis(dist, filePath);
+        }
+    }
+
+
+    /**
+     * Computes the exact distance distribution of a BVGraph with HyperBall on bitsets. The names are automatically obtained from the graph.
+     * @param graph Graph to analyze.
+     */
+    public static void analyzeGraphExactly(BVGraph graph)
+    {
+        String baseName = Graphs.getBasename(graph);
+        String resultsFolder = baseName + File.separator;
+        analyzeGraphExactly(graph, resultsFolder);
+    }
+
+
+    /**
+     * Computes the exact distance distribution of a graph with HyperBall on bitsets, which is much faster than
+     * BFS-Traversal but needs n^2 / 4 bytes. The result equals that of BFS and is stored as such.
+     * @param graph The graph to analyze
+     * @param resultsFolder The folder to store the analysis results. For example: 'graphfolder/graphname'
+     */
+    public static void analyzeGraphExactly(ImmutableGraph graph, String resultsFolder)
+    {
+        final String FILE_NAME = BFS_KEY;
+
+        HyperBall ball = new HyperBall(graph, NUMBER_OF_BITS_HYPERBALL, NUMBER_OF_THREADS_HYPERBALL);
+        ball.setSketchType(SketchType.BITSET);
+
+        System.out.printf("Analyzing graph: %s containing %d nodes with exact HyperBall\n", resultsFolder, graph.numNodes());
+        long start = System.currentTimeMillis();
+        DistanceDistribution dist = ball.getDistanceDistribution();
+        long end = System.currentTimeMillis();
+
+        System.out.printf("Analysis Done\nTime taken: %dms\n", end - start);
+        System.out.println("Saving results to disk\n");
+
+        String filePath = RESUTLS_DIRECTORY + resultsFolder + File.separator + FILE_NAME;
+        saveDistanceDistributionAnalysis(dist, filePath);
+    }
+
+
     /**
      * Analysses a BVGraph using BFS-Traversal. The names are automatically obtained from the graph.
      * @param graph Graph to analyze.
@@ -130,6 +252,44 @@ public class GraphAnalyzer
     }
 
 
+    /**
+     * Analysses a BVGraph using bit-parallel multi-source BFS. The names are automatically obtained from the graph.
+     * @param graph Graph to analyze.
+     */
+    public static void analyzeGraphWithMultiSourceBFS(BVGraph graph)
+    {
+        String baseName = Graphs.getBasename(graph);
+        String resultsFolder = baseName + File.separator;
+        analyzeGraphWithMultiSourceBFS(graph, resultsFolder);
+    }
+
+
+    /**
+     * Computes the exact distance distribution of a graph with multi-source BFS, which gives the same result as
+     * analyzeGraphWithBFS() much faster. The result is stored under the same name.
+     * @param graph The graph to analyze
+     * @param resultsFolder The folder to store the analysis results. For example: 'graphfolder/graphname'
+     */
+    public static void analyzeGraphWithMultiSourceBFS(ImmutableGraph graph, String resultsFolder)
+    {
+        final String FILE_NAME = BFS_KEY;
+
+        MultiSourceBfs bfs = new MultiSourceBfs(graph, NUMBER_OF_THREADS_HYPERBALL);
+        bfs.setSourcesPerBatch(256);
+
+        System.out.printf("Analyzing graph: %s containing %d nodes with multi-source BFS\n", resultsFolder, graph.numNodes());
+        long start = System.currentTimeMillis();
+        DistanceDistribution dist = bfs.getDistanceDistribution();
+        long end = System.currentTimeMillis();
+
+        System.out.printf("Analysis Done\nTime taken: %dms\n", end - start);
+        System.out.println("Saving results to disk\n");
+
+        String filePath = RESUTLS_DIRECTORY + resultsFolder + File.separator + FILE_NAME;
+        saveDistanceDistributionAnalysis(dist, filePath);
+    }
+
+
     /**
      * Saves distance distribution to disk. Both the image and .dd file. 
      * @param dist  DistanceDistribution to save.
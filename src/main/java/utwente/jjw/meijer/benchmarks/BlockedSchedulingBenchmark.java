@@ -0,0 +1,60 @@
+package utwente.jjw.meijer.benchmarks;
+
+import java.io.IOException;
+
+import it.unimi.dsi.webgraph.ImmutableGraph;
+import utwente.jjw.meijer.hyperball.DistanceDistribution;
+import utwente.jjw.meijer.hyperball.Graphs;
+import utwente.jjw.meijer.hyperball.HyperBall;
+import utwente.jjw.meijer.hyperball.StopPolicy;
+
+/**
+ * Compares HyperBall iterations with and without cache blocking, see HyperBall.setCacheSize().
+ * Blocking only matters when the counters are much larger than the last level cache, so the default graph is large,
+ * run it with for example -Xmx3g.
+ * Usage: BlockedSchedulingBenchmark [nodes] [average degree] [number of bits] [cache sizes in KiB...]
+ */
+public class BlockedSchedulingBenchmark {
+
+    private static final int ITERATIONS = 4;
+    private static final int RUNS = 2;
+
+    public static void main(String[] args) throws IOException
+    {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 4000000;
+        double degree = args.length > 1 ? Double.parseDouble(args[1]) : 8;
+        int numberOfBits = args.length > 2 ? Integer.parseInt(args[2]) : 6;
+        long[] cacheSizes = {0, 256 << 10, 1 << 20, 2 << 20, 8 << 20};
+        if (args.length > 3){
+            cacheSizes = new long[args.length - 3];
+            for (int i = 3; i < args.length; i++) cacheSizes[i - 3] = Long.parseLong(args[i]) << 10;
+        }
+
+        ImmutableGraph graph = Graphs.getErdosRenyiGraph(nodes, degree / nodes, 42L);
+        int threads = Runtime.getRuntime().availableProcessors();
+        System.out.printf("Graph with %d nodes and %d arcs, b=%d, %d threads\n", graph.numNodes(), graph.numArcs(), numberOfBits, threads);
+
+        StopPolicy stopPolicy = new StopPolicy();
+        stopPolicy.setMaxIterations(ITERATIONS);
+        DistanceDistribution unblocked = null;
+        for (long cacheSize : cacheSizes){
+            // Best of a few runs, the first one includes compilation.
+            long time = Long.MAX_VALUE;
+            DistanceDistribution dist = null;
+            for (int run = 0; run < RUNS; run++){
+                HyperBall ball = new HyperBall(graph, numberOfBits, threads);
+                ball.setStopPolicy(stopPolicy);
+                ball.setCacheSize(cacheSize);
+                long start = System.currentTimeMillis();
+                dist = ball.getDistanceDistribution();
+                time = Math.min(time, System.currentTimeMillis() - start);
+            }
+            if (unblocked == null) unblocked = dist;
+
+            boolean equal = unblocked.getTotal() == dist.getTotal();
+            double arcsPerSecond = (double) graph.numArcs() * ITERATIONS / time * 1000;
+            System.out.printf("%-18s %6dms  %6.1fM arcs/s  %s\n", cacheSize == 0 ? "unblocked" : "blocked " + (cacheSize >> 10) + "KiB",
+                    time, arcsPerSecond / 1e6, equal ? "" : "DIFFERS");
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package utwente.jjw.meijer.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import it.unimi.dsi.webgraph.ImmutableGraph;
+import utwente.jjw.meijer.hyperball.Graphs;
+import utwente.jjw.meijer.hyperball.HyperBall;
+
+/**
+ * Compares the throughput of HyperBall with counters on the heap against counters in memory-mapped files.
+ * Usage: CounterStorageBenchmark [graph basename] [counter directory]
+ * Without arguments an Erdos-Renyi graph is generated and the counters are mapped in the temporary directory.
+ */
+public class CounterStorageBenchmark {
+
+    private static final int NUMBER_OF_BITS = 5;
+    private static final int RUNS = 3;
+
+    /**
+     * Runs HyperBall a number of times and prints the time of the fastest run.
+     * @param graph graph to analyze.
+     * @param counterDirectory directory for memory-mapped counters, null for counters on the heap.
+     */
+    private static void benchmark(String name, ImmutableGraph graph, File counterDirectory)
+    {
+        long best = Long.MAX_VALUE;
+        int iterations = 0;
+        for (int run = 0; run < RUNS; run++){
+            HyperBall ball = new HyperBall(graph, NUMBER_OF_BITS, Runtime.getRuntime().availableProcessors());
+            if (counterDirectory != null) ball.setCounterDirectory(counterDirectory);
+
+            long start = System.currentTimeMillis();
+            ball.getDistanceDistribution();
+            best = Math.min(best, System.currentTimeMillis() - start);
+            iterations = ball.getNodesTouched().size();
+        }
+
+        long arcs = 0;
+        for (int node = 0; node < graph.numNodes(); node++) arcs += graph.outdegree(node);
+        double arcsPerSecond = (double) arcs * iterations / best * 1000;
+        System.out.printf("%-10s best of %d runs: %dms, %d iterations, %.0f arcs/s\n", name, RUNS, best, iterations, arcsPerSecond);
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        ImmutableGraph graph = args.length > 0 ? Graphs.loadBVGraphFromFile(args[0]) : Graphs.getErdosRenyiGraph(100000, 0.0001, 42L);
+        File counterDirectory = new File(args.length > 1 ? args[1] : System.getProperty("java.io.tmpdir"));
+
+        System.out.printf("Graph with %d nodes, counter files in %s\n", graph.numNodes(), counterDirectory);
+        benchmark("heap", graph, null);
+        benchmark("mapped", graph, counterDirectory);
+    }
+}
@@ -0,0 +1,81 @@
+package utwente.jjw.meijer.benchmarks;
+
+import java.io.IOException;
+
+import it.unimi.dsi.webgraph.ImmutableGraph;
+import utwente.jjw.meijer.hll.SketchType;
+import utwente.jjw.meijer.hyperball.BfsTraversal;
+import utwente.jjw.meijer.hyperball.DistanceDistribution;
+import utwente.jjw.meijer.hyperball.Graphs;
+import utwente.jjw.meijer.hyperball.HyperBall;
+import utwente.jjw.meijer.hyperball.MultiSourceBfs;
+
+/**
+ * Compares the exact distance distribution of HyperBall on bitsets and of multi-source BFS against BFS-Traversal from
+ * every node.
+ * Usage: ExactBallBenchmark [graph basename]
+ * Without arguments an Erdos-Renyi graph is generated.
+ */
+public class ExactBallBenchmark {
+
+    private static final int NUMBER_OF_BITS = 5;       // not used by bitsets.
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws IOException
+    {
+        ImmutableGraph graph = args.length > 0 ? Graphs.loadBVGraphFromFile(args[0]) : Graphs.getErdosRenyiGraph(10000, 0.0005, 42L);
+        int threads = Runtime.getRuntime().availableProcessors();
+        System.out.printf("Graph with %d nodes, %d threads\n", graph.numNodes(), threads);
+
+        long start = System.currentTimeMillis();
+        DistanceDistribution bfs = new BfsTraversal(graph).getDistanceDistribution();
+        long bfsTime = System.currentTimeMillis() - start;
+
+        BfsTraversal directionOptimizing = new BfsTraversal(graph);
+        directionOptimizing.setTransposeGraph(Graphs.getTransposeGraph(graph));
+        start = System.currentTimeMillis();
+        DistanceDistribution bottomUp = directionOptimizing.getDistanceDistribution();
+        long bottomUpTime = System.currentTimeMillis() - start;
+
+        // Best of a few runs, the first ones include the compilation of the union loop.
+        long[] times = {Long.MAX_VALUE, Long.MAX_VALUE};
+        DistanceDistribution exact = null;
+        for (int i = 0; i < times.length; i++){
+            for (int run = 0; run < RUNS; run++){
+                HyperBall ball = new HyperBall(graph, NUMBER_OF_BITS, i == 0 ? 1 : threads);
+                ball.setSketchType(SketchType.BITSET);
+                start = System.currentTimeMillis();
+                exact = ball.getDistanceDistribution();
+                times[i] = Math.min(times[i], System.currentTimeMillis() - start);
+            }
+        }
+
+        int[] sourcesPerBatch = {64, 256};
+        long[] msBfsTimes = {Long.MAX_VALUE, Long.MAX_VALUE};
+        DistanceDistribution msBfs = null;
+        for (int i = 0; i < sourcesPerBatch.length; i++){
+            for (int run = 0; run < RUNS; run++){
+                MultiSourceBfs search = new MultiSourceBfs(graph, threads);
+                search.setSourcesPerBatch(sourcesPerBatch[i]);
+                start = System.currentTimeMillis();
+                msBfs = search.getDistanceDistribution();
+                msBfsTimes[i] = Math.min(msBfsTimes[i], System.currentTimeMillis() - start);
+            }
+        }
+
+        boolean equal = true;
+        for (DistanceDistribution other : new DistanceDistribution[] {bottomUp, exact, msBfs}){
+            equal = equal && bfs.getTotal() == other.getTotal();
+            for (int distance = 1; distance <= 1000 && equal; distance++) equal = bfs.getValue(distance) == other.getValue(distance);
+        }
+
+        System.out.printf("BFS:                          %dms\n", bfsTime);
+        System.out.printf("BFS, direction-optimizing:    %dms (%.1fx)\n", bottomUpTime, (double) bfsTime / bottomUpTime);
+        System.out.printf("bitset HyperBall, 1 thread:   %dms (%.1fx)\n", times[0], (double) bfsTime / times[0]);
+        System.out.printf("bitset HyperBall, %d threads: %dms (%.1fx)\n", threads, times[1], (double) bfsTime / times[1]);
+        for (int i = 0; i < sourcesPerBatch.length; i++){
+            System.out.printf("MS-BFS, %d sources, %d threads: %dms (%.1fx)\n", sourcesPerBatch[i], threads, msBfsTimes[i], (double) bfsTime / msBfsTimes[i]);
+        }
+        System.out.printf("Distributions %s\n", equal ? "are equal" : "DIFFER");
+    }
+}
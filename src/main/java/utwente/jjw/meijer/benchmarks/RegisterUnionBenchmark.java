@@ -0,0 +1,69 @@
+package utwente.jjw.meijer.benchmarks;
+
+import java.util.Random;
+
+import utwente.jjw.meijer.hll.RegisterOperations;
+import utwente.jjw.meijer.hll.ScalarRegisterOperations;
+
+/**
+ * Compares the scalar register union and zero count of HLLCounter against the vectorized ones, for every number of
+ * registers. Run with --add-modules jdk.incubator.vector on JDK 16 or later, otherwise only the scalar operations
+ * are available. HyperBall does not use these operations, see RegisterOperations.
+ */
+public class RegisterUnionBenchmark {
+
+    private static final int COUNTERS = 1 << 12;
+    private static final int UNIONS = 1 << 22;
+    private static final int RUNS = 5;
+
+    /**
+     * @return the best time of a number of runs in nanoseconds per union followed by a zero count.
+     */
+    private static double benchmark(RegisterOperations operations, byte[][] counters, byte[][] others)
+    {
+        long best = Long.MAX_VALUE;
+        long checksum = 0;
+        for (int run = 0; run < RUNS; run++){
+            byte[][] copies = new byte[COUNTERS][];
+            for (int i = 0; i < COUNTERS; i++) copies[i] = counters[i].clone();
+
+            long start = System.nanoTime();
+            for (int u = 0; u < UNIONS; u++){
+                int i = u & (COUNTERS - 1);
+                if (operations.max(copies[i], others[(u * 31) & (COUNTERS - 1)])) checksum++;
+                checksum += operations.countZeroes(copies[i]);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        if (checksum == 42) System.out.print("");      // keeps the results alive.
+        return (double) best / UNIONS;
+    }
+
+    public static void main(String[] args)
+    {
+        RegisterOperations scalar = new ScalarRegisterOperations();
+        RegisterOperations selected = RegisterOperations.select();
+        System.out.printf("Vectorized operations: %s\n", selected.getClass().getSimpleName());
+        if (selected instanceof ScalarRegisterOperations){
+            System.out.println("Not available, run on JDK 16 or later with --add-modules jdk.incubator.vector");
+        }
+
+        Random random = new Random(42);
+        System.out.printf("%-10s%-15s%-15s%s\n", "registers", "scalar ns", "vector ns", "speedup");
+        for (int b = 4; b <= 10; b++){
+            int p = 1 << b;
+            byte[][] counters = new byte[COUNTERS][p];
+            byte[][] others = new byte[COUNTERS][p];
+            for (int i = 0; i < COUNTERS; i++){
+                for (int j = 0; j < p; j++){
+                    counters[i][j] = (byte) random.nextInt(8);
+                    others[i][j] = (byte) random.nextInt(8);
+                }
+            }
+
+            double scalarTime = benchmark(scalar, counters, others);
+            double vectorTime = benchmark(selected, counters, others);
+            System.out.printf("%-10d%-15.1f%-15.1f%.1fx\n", p, scalarTime, vectorTime, scalarTime / vectorTime);
+        }
+    }
+}
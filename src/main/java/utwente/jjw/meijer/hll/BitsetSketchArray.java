@@ -0,0 +1,261 @@
+package utwente.jjw.meijer.hll;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.InvalidParameterException;
+
+
+/**
+ * Array of exact counters, every counter is a bitset of the items added to it. Items must lie in [0, numberOfItems),
+ * for HyperBall these are the nodes. A counter takes numberOfItems bits, so this is only feasible for small graphs,
+ * but it gives the exact neighbourhood function and serves as a reference for the estimating sketches.
+ *
+ * Counter i occupies the words [i * wordsPerCounter, (i + 1) * wordsPerCounter), item x is bit x % 64 of word x / 64.
+ * A union is a word-wise or. On the heap it is a branch-free loop over the arrays, which the JIT compiler vectorizes,
+ * and the number of items of a changed counter is only counted again when its size is asked for. HyperBall with
+ * these counters computes the exact neighbourhood function in O(diameter * m * n / 64) word operations, instead of
+ * the O(n * m) steps of a BFS from every node, see BfsTraversal.
+ *
+ * Seeds are ignored, counters are the same for every seed.
+ */
+public class BitsetSketchArray implements CardinalitySketchArray {
+
+    private static final int UNKNOWN = -1;
+
+    private final CounterStorage words;
+    private final long[] heapWords;             // the words when on the heap, null when memory-mapped.
+    private final int[] cardinalities;         // number of items of every counter, UNKNOWN after a union changed it.
+    private final int numberOfItems;
+    private final int numberOfCounters;
+    private final int wordsPerCounter;
+
+    /**
+     * Creates an array of empty counters on the heap.
+     * @param numberOfCounters Number of counters, for HyperBall this is the number of nodes.
+     * @param numberOfItems Number of possible items, for HyperBall this is the number of nodes.
+     * @throws InvalidParameterException if the bitsets of all counters do not fit in a single array.
+     */
+    public BitsetSketchArray(int numberOfCounters, int numberOfItems) throws InvalidParameterException
+    {
+        this(numberOfCounters, numberOfItems, new HeapCounterStorage(getNumberOfWords(numberOfCounters, numberOfItems)));
+    }
+
+    /**
+     * Creates an array of empty counters in a memory-mapped file. The file is deleted when the array is closed.
+     * @param numberOfCounters Number of counters, for HyperBall this is the number of nodes.
+     * @param numberOfItems Number of possible items, for HyperBall this is the number of nodes.
+     * @param file File to store the bitsets in.
+     * @throws IOException
+     */
+    public BitsetSketchArray(int numberOfCounters, int numberOfItems, File file) throws IOException
+    {
+        this(numberOfCounters, numberOfItems, new MappedCounterStorage(file, getNumberOfWords(numberOfCounters, numberOfItems), true));
+    }
+
+    private BitsetSketchArray(int numberOfCounters, int numberOfItems, CounterStorage storage)
+    {
+        this.numberOfItems = numberOfItems;
+        this.numberOfCounters = numberOfCounters;
+        this.wordsPerCounter = getWordsPerCounter(numberOfItems);
+        this.words = storage;
+        this.heapWords = storage instanceof HeapCounterStorage ? ((HeapCounterStorage) storage).getWords() : null;
+        this.cardinalities = new int[numberOfCounters];
+    }
+
+    private static int getWordsPerCounter(int numberOfItems)
+    {
+        return (numberOfItems + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    /**
+     * @return Number of words needed to store the bitsets of all counters.
+     */
+    private static long getNumberOfWords(int numberOfCounters, int numberOfItems)
+    {
+        return (long) numberOfCounters * getWordsPerCounter(numberOfItems);
+    }
+
+    /**
+     * Adds an item to a counter.
+     * @param counter index of the counter.
+     * @param item item to add to the counter, from 0 to numberOfItems - 1.
+     * @param seed ignored, the counter is exact.
+     * @return Whether the counter has changed.
+     * @throws InvalidParameterException if the item is out of range.
+     */
+    @Override
+    public boolean add(int counter, int item, int seed) throws InvalidParameterException
+    {
+        if (item < 0 || item >= numberOfItems) throw new InvalidParameterException("Item " + item + " is out of range");
+        long wordIndex = (long) counter * wordsPerCounter + item / Long.SIZE;
+        long word = words.get(wordIndex);
+        long bit = 1L << item;      // shifts are taken modulo 64.
+        if ((word & bit) != 0) return false;
+        words.set(wordIndex, word | bit);
+        if (cardinalities[counter] != UNKNOWN) cardinalities[counter]++;
+        return true;
+    }
+
+    /**
+     * @param counter index of the counter.
+     * @param item the item.
+     * @return Whether the item was added to the counter.
+     */
+    public boolean contains(int counter, int item)
+    {
+        return (words.get((long) counter * wordsPerCounter + item / Long.SIZE) & (1L << item)) != 0;
+    }
+
+    /**
+     * @return Number of possible items.
+     */
+    public int getNumberOfItems()
+    {
+        return this.numberOfItems;
+    }
+
+    @Override
+    public int getNumberOfCounters()
+    {
+        return this.numberOfCounters;
+    }
+
+    @Override
+    public void copy(int counter, CardinalitySketchArray from)
+    {
+        BitsetSketchArray other = (BitsetSketchArray) from;
+        long offset = (long) counter * wordsPerCounter;
+        if (heapWords != null && other.heapWords != null){
+            System.arraycopy(other.heapWords, (int) offset, heapWords, (int) offset, wordsPerCounter);
+        } else {
+            for (int i = 0; i < wordsPerCounter; i++){
+                this.words.set(offset + i, other.words.get(offset + i));
+            }
+        }
+        this.cardinalities[counter] = other.cardinalities[counter];
+    }
+
+    /**
+     * Makes a union of a counter in this array with a counter of another (or the same) array.
+     * NOTE: This changes this counter and does not change the argument counter.
+     * Complexity: O(numberOfItems / 64).
+     * @param counter index of the counter to change.
+     * @param other The array containing the counter to union with.
+     * @param otherCounter index of the counter in other.
+     * @return Whether this counter has been changed.
+     */
+    @Override
+    public boolean union(int counter, CardinalitySketchArray other, int otherCounter)
+    {
+        BitsetSketchArray that = (BitsetSketchArray) other;
+        long offset = (long) counter * wordsPerCounter;
+        long otherOffset = (long) otherCounter * wordsPerCounter;
+        if (heapWords != null && that.heapWords != null) return union(counter, heapWords, (int) offset, that.heapWords, (int) otherOffset);
+
+        // Mapped words are only written when they change, to keep clean pages clean.
+        boolean changed = false;
+        for (int i = 0; i < wordsPerCounter; i++){
+            long y = that.words.get(otherOffset + i);
+            if (y == 0) continue;
+            long x = this.words.get(offset + i);
+            if ((y & ~x) != 0){
+                this.words.set(offset + i, x | y);
+                changed = true;
+            }
+        }
+        if (changed) cardinalities[counter] = UNKNOWN;
+        return changed;
+    }
+
+    /**
+     * Union of two counters on the heap, without branches in the loop so that it is vectorized.
+     */
+    private boolean union(int counter, long[] x, int offset, long[] y, int otherOffset)
+    {
+        long newBits = 0;
+        for (int i = 0; i < wordsPerCounter; i++){
+            long word = x[offset + i];
+            long otherWord = y[otherOffset + i];
+            newBits |= otherWord & ~word;
+            x[offset + i] = word | otherWord;
+        }
+        if (newBits == 0) return false;
+        cardinalities[counter] = UNKNOWN;
+        return true;
+    }
+
+    /**
+     * Returns the number of items of a counter. Complexity: O(1), or O(numberOfItems / 64) after a union changed it.
+     * @param counter index of the counter.
+     * @return The exact number of items in the counter.
+     */
+    @Override
+    public long getSize(int counter)
+    {
+        if (cardinalities[counter] == UNKNOWN) cardinalities[counter] = countItems(counter);
+        return cardinalities[counter];
+    }
+
+    /**
+     * @return The number of bits set in a counter.
+     */
+    private int countItems(int counter)
+    {
+        long offset = (long) counter * wordsPerCounter;
+        int count = 0;
+        if (heapWords != null){
+            for (int i = (int) offset; i < offset + wordsPerCounter; i++) count += Long.bitCount(heapWords[i]);
+        } else {
+            for (int i = 0; i < wordsPerCounter; i++) count += Long.bitCount(words.get(offset + i));
+        }
+        return count;
+    }
+
+    @Override
+    public String getDescription()
+    {
+        return String.format("Bitset(n=%d)", numberOfItems);
+    }
+
+    @Override
+    public long getSerializedSize()
+    {
+        return words.size() * Long.BYTES;
+    }
+
+    /**
+     * Writes the bitsets of all counters to a channel, as the sequence of their words.
+     * @param channel channel to write to.
+     * @throws IOException
+     */
+    @Override
+    public void write(WritableByteChannel channel) throws IOException
+    {
+        words.write(channel);
+    }
+
+    /**
+     * Replaces the bitsets of all counters with those read from a channel, as written by write().
+     * @param channel channel to read from.
+     * @throws IOException also when the channel ends before all words are read.
+     */
+    @Override
+    public void read(ReadableByteChannel channel) throws IOException
+    {
+        words.read(channel);
+        for (int counter = 0; counter < numberOfCounters; counter++){
+            cardinalities[counter] = countItems(counter);
+        }
+    }
+
+    /**
+     * Releases the storage of the bitsets. For a memory-mapped array this removes its file.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        words.close();
+    }
+}
@@ -0,0 +1,85 @@
+package utwente.jjw.meijer.hll;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+
+/**
+ * Array of cardinality sketches, one per counter, as used by HyperBall. A sketch counts the distinct items added to
+ * it, and the union of two sketches counts the items added to either.
+ *
+ * Implementations:
+ * HLLCounterArray, HyperLogLog with registers of 4 to 8 bits.
+ * TailCutHLLArray, HyperLogLog with 4-bit registers relative to a base value per counter, which needs less memory.
+ * BitsetSketchArray, an exact set of the items as a bitset, for small graphs and to validate the estimates.
+ *
+ * Unions only combine sketches of arrays of the same class and parameters.
+ */
+public interface CardinalitySketchArray extends Closeable {
+
+    /**
+     * Adds an item to a counter, hashed with a seeded hash function.
+     * Counters that are filled with different seeds are independent estimates.
+     * @param counter index of the counter.
+     * @param item item to add to the counter.
+     * @param seed seed of the hash function.
+     * @return Whether the counter has changed.
+     */
+    boolean add(int counter, int item, int seed);
+
+    /**
+     * Overwrites a counter with the counter at the same index of another array.
+     * @param counter index of the counter.
+     * @param from The array to copy from. Must have the same class and parameters.
+     */
+    void copy(int counter, CardinalitySketchArray from);
+
+    /**
+     * Makes a union of a counter in this array with a counter of another (or the same) array.
+     * NOTE: This changes this counter and does not change the argument counter.
+     * @param counter index of the counter to change.
+     * @param other The array containing the counter to union with. Must have the same class and parameters.
+     * @param otherCounter index of the counter in other.
+     * @return Whether this counter has been changed.
+     */
+    boolean union(int counter, CardinalitySketchArray other, int otherCounter);
+
+    /**
+     * @param counter index of the counter.
+     * @return The estimated number of distinct items in the counter.
+     */
+    long getSize(int counter);
+
+    /**
+     * @return Number of counters in this array.
+     */
+    int getNumberOfCounters();
+
+    /**
+     * Describes the kind of sketch and its parameters. Counters written by write() can only be read by an array with
+     * the same description.
+     * @return for example "HyperLogLog(b=5, w=5, Murmur3Hash32)".
+     */
+    String getDescription();
+
+    /**
+     * @return Number of bytes written by write().
+     */
+    long getSerializedSize();
+
+    /**
+     * Writes all counters to a channel.
+     * @param channel channel to write to.
+     * @throws IOException
+     */
+    void write(WritableByteChannel channel) throws IOException;
+
+    /**
+     * Replaces all counters with those read from a channel, as written by write() of an array with the same description.
+     * @param channel channel to read from.
+     * @throws IOException also when the channel ends before all counters are read.
+     */
+    void read(ReadableByteChannel channel) throws IOException;
+}
@@ -0,0 +1,84 @@
+package utwente.jjw.meijer.hll;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+
+/**
+ * Storage of the 64-bit words holding the registers of a CardinalitySketchArray.
+ * Words are addressed by a long index, so storages are not limited to the size of a Java array.
+ */
+public interface CounterStorage extends Closeable {
+
+    /**
+     * @param index index of the word.
+     * @return the word at index.
+     */
+    long get(long index);
+
+    /**
+     * @param index index of the word.
+     * @param value new value of the word.
+     */
+    void set(long index, long value);
+
+    /**
+     * @return Number of words in the storage.
+     */
+    long size();
+
+    /**
+     * Writes all words to a channel, in order.
+     * @param channel channel to write to.
+     * @throws IOException
+     */
+    default void write(WritableByteChannel channel) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        long numberOfWords = size();
+        for (long i = 0; i < numberOfWords; i++){
+            if (!buffer.hasRemaining()) drain(buffer, channel);
+            buffer.putLong(get(i));
+        }
+        drain(buffer, channel);
+    }
+
+    /**
+     * Replaces all words with those read from a channel, as written by write().
+     * @param channel channel to read from.
+     * @throws IOException also when the channel ends before all words are read.
+     */
+    default void read(ReadableByteChannel channel) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        buffer.flip();
+        long numberOfWords = size();
+        long bytesLeft = numberOfWords * Long.BYTES;   // never read past the words, the channel may contain more.
+        for (long i = 0; i < numberOfWords; i++){
+            if (!buffer.hasRemaining()){
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), bytesLeft));
+                while (buffer.hasRemaining()){
+                    if (channel.read(buffer) < 0) throw new EOFException("Channel ended after " + i + " words");
+                }
+                bytesLeft -= buffer.limit();
+                buffer.flip();
+            }
+            set(i, buffer.getLong());
+        }
+    }
+
+    /**
+     * Writes the buffered bytes to a channel and clears the buffer.
+     */
+    private static void drain(ByteBuffer buffer, WritableByteChannel channel) throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+}
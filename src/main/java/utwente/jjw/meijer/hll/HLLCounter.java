@@ -1,29 +1,56 @@
 package utwente.jjw.meijer.hll;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
-
 
 /**
  * HyperLogLog counter. Used for the HyperBall algorithm. HyperLogLog is capable
  * of counting large cardinalities while keeping its memory space to a minimum.
  * 
- * p is number of registers used. Note that hashes should be 64-bit values.
- * Hence the max number of leading zeroes is equal to 64 - b
+ * p is number of registers used. Hashes are 32 or 64-bit values, see HashFunction.
+ * With 64-bit hashes the estimate needs no large range correction, hence it does not saturate at 2^32.
  */
 public class HLLCounter {
 
 
+    /**
+     * Lookup table of 2^-r for every possible register value r, used by the harmonic mean of the estimator.
+     * Registers never exceed 64 - b + 1, hence 66 entries suffice for every b.
+     */
+    static final double[] INVERSE_POWERS_OF_TWO = new double[66];
+    static {
+        for (int r = 0; r < INVERSE_POWERS_OF_TWO.length; r++){
+            INVERSE_POWERS_OF_TWO[r] = Math.scalb(1.0, -r);
+        }
+    }
+
+    /**
+     * Union and zero count of the registers, with the Vector API when the JVM supports it.
+     */
+    private static final RegisterOperations REGISTER_OPERATIONS = RegisterOperations.select();
+
+    private static final double TWO_TO_THE_32 = Math.pow(2, 32);
+
     private final byte[] counter; 
     private final int b;
+    private final HashFunction hashFunction;
 
     /**
      * Constructor: Calculates p from given number of bits. 
      * @param b Number of bits used for register identification.
      */
     public HLLCounter(int b) 
+    {
+        this(b, new Murmur3Hash32());
+    }
+
+    /**
+     * Constructor: Calculates p from given number of bits.
+     * @param b Number of bits used for register identification.
+     * @param hashFunction Hash function applied to the items.
+     */
+    public HLLCounter(int b, HashFunction hashFunction)
     {
         this.b = b;
+        this.hashFunction = hashFunction;
         int p = (int) Math.pow(2, b); // Number of Registers is equal to 2^bits
         this.counter = new byte[p]; // initialize byte array.
     }
@@ -35,6 +62,7 @@ public class HLLCounter {
     public HLLCounter(HLLCounter toCopy)
     {
         this.b = toCopy.b;
+        this.hashFunction = toCopy.hashFunction;
         this.counter = toCopy.counter.clone();
     }
 
@@ -44,9 +72,9 @@ public class HLLCounter {
      * @return Whether the counter has changed.
      */
     public boolean add(int item){
-        int hash = NodeHasher.hash(item);
+        long hash = hashFunction.hash(item, 0);
         int index = getRegisterIndex(hash);
-        int leadingzeroes = getLeadingZeroes(hash);
+        int leadingzeroes = getLeadingZeroes(hash, hashFunction.getWidth());
         byte val = (byte) (leadingzeroes + 1);
         if (val > this.counter[index]){
 
@@ -62,7 +90,7 @@ public class HLLCounter {
      * @param p the number of registers.
      * @return the constant a_m
      */
-    public double calculateAm(int p){
+    public static double calculateAm(int p){
         switch (p){
             case 16: 
                 return 0.673;
@@ -95,34 +123,17 @@ public class HLLCounter {
     }
 
     /**
-     * Calculates the result of the indicator function.
+     * Calculates the sum of 2^-M[j] over all registers, the reciprocal of the indicator function Z.
      * According to the formula given in the paper: in-core computation of large cardinalities.
-     * @return Indicator value of the counter.
+     * @return Sum of the inverse powers of two of the registers.
      */
-    private BigDecimal getZ() 
+    private double getRegisterSum() 
     {
-
-        //calculate scale of the reciprocal, this is equal to log10(2^p)
-        int maxScale = (int) (Math.log10(Math.pow(2, getNumberOfRegisters())) + 4); // add 4 to stay safe.
-
-        BigDecimal registersum = new BigDecimal(0);
-        BigDecimal one = new BigDecimal(1);
-        BigDecimal two = new BigDecimal(2);
-
-        // Iterate through registers. To calculate Z 
+        double registersum = 0;
         for (int i = 0; i < counter.length; i++){
-            int regval = this.counter[i];
-
-            BigDecimal ival;
-            ival = two.pow(regval);
-            ival = one.divide(ival, maxScale, RoundingMode.HALF_UP);
-
-            registersum = registersum.add(ival);
+            registersum += INVERSE_POWERS_OF_TWO[this.counter[i]];
         }
-
-        BigDecimal result;
-        result = one.divide(registersum, maxScale, RoundingMode.HALF_UP);
-        return result;
+        return registersum;
     }
 
     /**
@@ -131,21 +142,7 @@ public class HLLCounter {
      */
     private double getE()
     {
-        BigDecimal Z = getZ();  // Z 
-        // a_m 
-        double da_m = calculateAm(getNumberOfRegisters());
-        BigDecimal a_m = new BigDecimal(da_m); // constant: a_m
-
-        BigDecimal psqr = new BigDecimal(getNumberOfRegisters()); // number of registers: p
-        psqr = psqr.pow(2); // p^2
-        
-        // Calculate a_m * p^2 * Z 
-        BigDecimal result;
-        result = a_m;
-        result = result.multiply(psqr);
-        result = result.multiply(Z); 
-
-        return result.doubleValue(); // return as long. 
+        return estimateE(getRegisterSum(), getNumberOfRegisters());
     }
 
     /** 
@@ -155,28 +152,64 @@ public class HLLCounter {
      */
     public long getSize()
     {
-        // Lower bound check.
-        double E = getE(); // normal estimator.
+        return estimateSize(getRegisterSum(), emptyRegisters(), getNumberOfRegisters(), hashFunction.getWidth());
+    }
+
+    /**
+     * Raw HyperLogLog estimate a_m * p^2 * Z, where Z is the reciprocal of the register sum.
+     * @param registerSum Sum of 2^-M[j] over all registers.
+     * @param p the number of registers.
+     * @return E the raw estimate.
+     */
+    static double estimateE(double registerSum, int p)
+    {
+        return calculateAm(p) * p * p / registerSum;
+    }
+
+    /**
+     * Returns the estimated cardinality of a counter from its register sum and number of empty registers.
+     * Includes the small and large range corrections. Shared by all counter representations so their sizes agree.
+     * @param registerSum Sum of 2^-M[j] over all registers.
+     * @param emptyRegisters Number of registers equal to zero.
+     * @param p the number of registers.
+     * @return The estimated cardinality.
+     */
+    static long estimateSize(double registerSum, int emptyRegisters, int p)
+    {
+        return estimateSize(registerSum, emptyRegisters, p, 32);
+    }
 
-        double lowerBound = (5.0 / 2) * getNumberOfRegisters();
-        double upperBound = (1.0 / 30) * (Math.pow(2,32)); 
+    /**
+     * Returns the estimated cardinality of a counter from its register sum and number of empty registers.
+     * The large range correction for hash collisions is only applied to 32-bit hashes.
+     * @param registerSum Sum of 2^-M[j] over all registers.
+     * @param emptyRegisters Number of registers equal to zero.
+     * @param p the number of registers.
+     * @param hashWidth the number of bits of the hashes, 32 or 64.
+     * @return The estimated cardinality.
+     */
+    static long estimateSize(double registerSum, int emptyRegisters, int p, int hashWidth)
+    {
+        double E = estimateE(registerSum, p); // normal estimator.
+
+        double lowerBound = (5.0 / 2) * p;
+        double upperBound = (1.0 / 30) * TWO_TO_THE_32; 
         // range corrections
         if (E < lowerBound){            // Small range correction
 
-            double V = (double) emptyRegisters();
+            double V = (double) emptyRegisters;
 
             if (V==0) return (long) E;  // prevents division by 0
             
-            double m = (double) getNumberOfRegisters();
+            double m = (double) p;
             double eStar = m * Math.log(m / V);
             return (long) eStar;
 
-        } else if (E < upperBound) {    // No range correction        
+        } else if (E < upperBound || hashWidth == 64) {    // No range correction        
             return (long) E;
 
         } else {                        // Large range correction
-            double maxVal = Math.pow(2,32);
-            double eStar = -1.0 * maxVal * Math.log(1 - (E/maxVal));
+            double eStar = -1.0 * TWO_TO_THE_32 * Math.log(1 - (E / TWO_TO_THE_32));
             return (long) eStar;
         }        
     }
@@ -192,6 +225,16 @@ public class HLLCounter {
         return (int) (hash >>> (32 - b)); //unsigned right shift. 
     }
 
+    /**
+     * Returns the counter index for a hash of a HashFunction, stored in the highest bits of a long.
+     * @param hash
+     * @return Index of register associated with the first bits of the hash.
+     */
+    public int getRegisterIndex(long hash)
+    {
+        return (int) (hash >>> (64 - b));
+    }
+
     /**
      * Gets leading zeroes of the hash. It removes the bits, which are used for the index.
      * @param hash hash to calculate leading zeroes.
@@ -203,39 +246,36 @@ public class HLLCounter {
         return (byte) Integer.numberOfLeadingZeros(importantBits);
     }
 
+    /**
+     * Gets leading zeroes of a hash of a HashFunction, stored in the highest bits of a long.
+     * For 32-bit hashes this equals getLeadingZeroes(int).
+     * @param hash hash to calculate leading zeroes.
+     * @param width number of bits of the hash, 32 or 64.
+     * @return number of leading zeroes.
+     */
+    public byte getLeadingZeroes(long hash, int width)
+    {
+        return (byte) Math.min(Long.numberOfLeadingZeros(hash << b), width);
+    }
+
     /**
      * @return Number of empty registers.
      */
     private int emptyRegisters(){
-        int emptyBuckets = 0;
-        for (int i = 0; i < counter.length; i++){
-            if (counter[i]==0) emptyBuckets++;
-        }
-        return emptyBuckets;
+        return REGISTER_OPERATIONS.countZeroes(counter);
     }
 
 
     /**
      * Makes a union of two counters. 
      * NOTE: This changes this counter and does not change the argument counter.
-     * Complexity: O(m)
+     * Complexity: O(m), vectorized if possible.
      * @param other The HLLCounter to union with.
      * @return Whether this counter has been changed.
      */
     public boolean union(HLLCounter other)
     {
-        boolean changed = false;
-
-        for (int i = 0; i < counter.length; i++){
-            byte otherVal = other.getRegister(i);
-            byte val = this.counter[i];
-            if (otherVal > val){
-                this.counter[i] = otherVal;
-                changed = true;
-            }
-        }
-
-        return changed;
+        return REGISTER_OPERATIONS.max(this.counter, other.counter);
     }
 
 
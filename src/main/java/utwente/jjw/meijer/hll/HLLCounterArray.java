@@ -0,0 +1,528 @@
+package utwente.jjw.meijer.hll;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.InvalidParameterException;
+
+
+/**
+ * Array of HyperLogLog counters stored in a single contiguous range of 64-bit words. The default CardinalitySketchArray.
+ * Used by HyperBall instead of an HLLCounter object per node, so that the only memory used per node are its registers.
+ * The words are kept in a CounterStorage, either a long[] on the heap or a memory-mapped file.
+ *
+ * Items are hashed with a HashFunction, by default 32-bit MurmurHash3. With a 64-bit hash function the sizes are not
+ * limited by the large range correction for 32-bit hashes.
+ *
+ * Registers are w bits wide, with w from 4 to 8, and packed floor(64 / w) to a word so no register straddles two words.
+ * Counter i occupies the words [i * wordsPerCounter, (i + 1) * wordsPerCounter). Register j of a counter is stored in
+ * word j / registersPerWord at bit offset (j % registersPerWord) * w. A register saturates at 2^w - 1, see
+ * getRegisterWidth(long, int) for a width at which this does not affect the estimates. By default w = 8.
+ *
+ * Unions are computed a word at a time with the broadword (SWAR) maximum described in
+ * In-core computation of geometric centralities with HyperBall, section 4.
+ *
+ * For every counter the sum of 2^-M[j] over its registers and its number of empty registers are kept up to date
+ * whenever a register rises. getSize() is therefore O(1) instead of a scan over all registers. These sums are kept in
+ * a second CounterStorage of two words per counter, memory-mapped next to the registers when those are mapped.
+ */
+public class HLLCounterArray implements CardinalitySketchArray {
+
+    public static final int DEFAULT_REGISTER_WIDTH = 8;
+    public static final int MIN_REGISTER_WIDTH = 4;
+    public static final int MAX_REGISTER_WIDTH = 8;
+    private static final int SATURATION_MARGIN = 4;        // register values to spare above log2 of the number of items.
+
+    private final int registerWidth;
+    private final int registersPerWord;
+    private final long registerMask;
+    private final int maxRegisterValue;
+    private final long highBits;                // highest bit of every register.
+    private final CounterStorage words;
+    private final HashFunction hashFunction;
+    private final CounterStorage sums;          // bits of the sum of 2^-M[j] and the number of zero registers per counter.
+    private final int b;
+    private final int numberOfRegisters;
+    private final int numberOfCounters;
+    private final int wordsPerCounter;
+
+    /**
+     * Creates an array of empty counters on the heap.
+     * @param numberOfCounters Number of counters, for HyperBall this is the number of nodes.
+     * @param b Number of bits used for register identification.
+     * @throws InvalidParameterException if the registers of all counters do not fit in a single array.
+     */
+    public HLLCounterArray(int numberOfCounters, int b) throws InvalidParameterException
+    {
+        this(numberOfCounters, b, new Murmur3Hash32());
+    }
+
+    /**
+     * Creates an array of empty counters on the heap.
+     * @param numberOfCounters Number of counters, for HyperBall this is the number of nodes.
+     * @param b Number of bits used for register identification.
+     * @param hashFunction Hash function applied to the items.
+     * @throws InvalidParameterException if the registers of all counters do not fit in a single array.
+     */
+    public HLLCounterArray(int numberOfCounters, int b, HashFunction hashFunction) throws InvalidParameterException
+    {
+        this(numberOfCounters, b, hashFunction, DEFAULT_REGISTER_WIDTH);
+    }
+
+    /**
+     * Creates an array of empty counters on the heap.
+     * @param numberOfCounters Number of counters, for HyperBall this is the number of nodes.
+     * @param b Number of bits used for register identification.
+     * @param hashFunction Hash function applied to the items.
+     * @param registerWidth Number of bits of a register, from 4 to 8.
+     * @throws InvalidParameterException if the registers of all counters do not fit in a single array.
+     */
+    public HLLCounterArray(int numberOfCounters, int b, HashFunction hashFunction, int registerWidth) throws InvalidParameterException
+    {
+        this(numberOfCounters, b, hashFunction, registerWidth,
+            new HeapCounterStorage(getNumberOfWords(numberOfCounters, b, checkRegisterWidth(registerWidth))),
+            new HeapCounterStorage(2L * numberOfCounters));
+    }
+
+    /**
+     * Creates an array of empty counters in a memory-mapped file. The register sums are mapped from the file with
+     * ".sums" appended to its name. Both files are deleted when the array is closed.
+     * @param numberOfCounters Number of counters, for HyperBall this is the number of nodes.
+     * @param b Number of bits used for register identification.
+     * @param file File to store the registers in.
+     * @throws IOException
+     */
+    public HLLCounterArray(int numberOfCounters, int b, File file) throws IOException
+    {
+        this(numberOfCounters, b, new Murmur3Hash32(), file);
+    }
+
+    /**
+     * Creates an array of empty counters in a memory-mapped file. The register sums are mapped from the file with
+     * ".sums" appended to its name. Both files are deleted when the array is closed.
+     * @param numberOfCounters Number of counters, for HyperBall this is the number of nodes.
+     * @param b Number of bits used for register identification.
+     * @param hashFunction Hash function applied to the items.
+     * @param file File to store the registers in.
+     * @throws IOException
+     */
+    public HLLCounterArray(int numberOfCounters, int b, HashFunction hashFunction, File file) throws IOException
+    {
+        this(numberOfCounters, b, hashFunction, DEFAULT_REGISTER_WIDTH, file);
+    }
+
+    /**
+     * Creates an array of empty counters in a memory-mapped file. The register sums are mapped from the file with
+     * ".sums" appended to its name. Both files are deleted when the array is closed.
+     * @param numberOfCounters Number of counters, for HyperBall this is the number of nodes.
+     * @param b Number of bits used for register identification.
+     * @param hashFunction Hash function applied to the items.
+     * @param registerWidth Number of bits of a register, from 4 to 8.
+     * @param file File to store the registers in.
+     * @throws IOException
+     */
+    public HLLCounterArray(int numberOfCounters, int b, HashFunction hashFunction, int registerWidth, File file) throws IOException
+    {
+        this(numberOfCounters, b, hashFunction, registerWidth,
+            new MappedCounterStorage(file, getNumberOfWords(numberOfCounters, b, checkRegisterWidth(registerWidth)), true),
+            new MappedCounterStorage(new File(file.getPath() + ".sums"), 2L * numberOfCounters, true));
+    }
+
+    private HLLCounterArray(int numberOfCounters, int b, HashFunction hashFunction, int registerWidth, CounterStorage storage, CounterStorage sums)
+    {
+        this.b = b;
+        this.hashFunction = hashFunction;
+        this.numberOfRegisters = 1 << b; // Number of Registers is equal to 2^bits
+        this.numberOfCounters = numberOfCounters;
+        this.registerWidth = registerWidth;
+        this.registersPerWord = Long.SIZE / registerWidth;
+        this.registerMask = (1L << registerWidth) - 1;
+        this.maxRegisterValue = (int) registerMask;
+        this.highBits = lowBits(registerWidth, registersPerWord) << (registerWidth - 1);
+        this.wordsPerCounter = getWordsPerCounter(b, registerWidth);
+        this.words = storage;
+        this.sums = sums;
+
+        // All registers start at zero, each contributing 2^0 to the register sum.
+        for (int counter = 0; counter < numberOfCounters; counter++){
+            setSums(counter, numberOfRegisters, numberOfRegisters);
+        }
+    }
+
+    private static int getWordsPerCounter(int b, int registerWidth)
+    {
+        int registersPerWord = Long.SIZE / registerWidth;
+        return ((1 << b) + registersPerWord - 1) / registersPerWord;
+    }
+
+    /**
+     * @return Number of words needed to store the registers of all counters.
+     */
+    private static long getNumberOfWords(int numberOfCounters, int b, int registerWidth)
+    {
+        return (long) numberOfCounters * getWordsPerCounter(b, registerWidth);
+    }
+
+    private static int checkRegisterWidth(int registerWidth) throws InvalidParameterException
+    {
+        if (registerWidth < MIN_REGISTER_WIDTH || registerWidth > MAX_REGISTER_WIDTH){
+            throw new InvalidParameterException("Register width must be between " + MIN_REGISTER_WIDTH + " and " + MAX_REGISTER_WIDTH);
+        }
+        return registerWidth;
+    }
+
+    /**
+     * Returns the smallest register width whose registers do not saturate in practice when counting up to a number
+     * of items. A register holds the maximum leading zeroes + 1 of the hashes of its items. The probability that any
+     * register of a counter exceeds log2(items) + 1 + k is below 2^-k, and then mostly by one.
+     * @param numberOfItems Maximum number of distinct items in a counter, for HyperBall the number of nodes.
+     * @param hashWidth Number of bits of the hashes, the registers never exceed hashWidth + 1.
+     * @return Register width from 4 to 8.
+     */
+    public static int getRegisterWidth(long numberOfItems, int hashWidth)
+    {
+        int log2 = Long.SIZE - Long.numberOfLeadingZeros(Math.max(1, numberOfItems));
+        int maxValue = Math.min(log2 + 1 + SATURATION_MARGIN, hashWidth + 1);
+        int width = MIN_REGISTER_WIDTH;
+        while ((1 << width) - 1 < maxValue && width < MAX_REGISTER_WIDTH) width++;
+        return width;
+    }
+
+    /**
+     * Adds an item to a counter.
+     * @param counter index of the counter.
+     * @param item item to add to the counter.
+     * @return Whether the counter has changed.
+     */
+    public boolean add(int counter, int item)
+    {
+        return add(counter, item, 0);
+    }
+
+    /**
+     * Adds an item to a counter, hashed with a seeded hash function.
+     * Counters that are filled with different seeds are independent estimates.
+     * @param counter index of the counter.
+     * @param item item to add to the counter.
+     * @param seed seed of the hash function, add(counter, item) uses seed 0.
+     * @return Whether the counter has changed.
+     */
+    @Override
+    public boolean add(int counter, int item, int seed)
+    {
+        long hash = hashFunction.hash(item, seed);
+        int index = (int) (hash >>> (64 - b));                          // first b bits are the register index.
+        int val = Math.min(Long.numberOfLeadingZeros(hash << b), hashFunction.getWidth()) + 1;   // leading zeroes of the remaining bits + 1.
+        val = Math.min(val, maxRegisterValue);                         // saturate.
+        int oldVal = getRegister(counter, index);
+        if (val > oldVal){
+            setRegister(counter, index, val);
+            addToSums(counter, HLLCounter.INVERSE_POWERS_OF_TWO[val] - HLLCounter.INVERSE_POWERS_OF_TWO[oldVal], oldVal == 0 ? 1 : 0);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets register value.
+     * @param counter index of the counter.
+     * @param j index of the register.
+     * @return register value.
+     */
+    public int getRegister(int counter, int j)
+    {
+        long word = words.get((long) counter * wordsPerCounter + j / registersPerWord);
+        int shift = (j % registersPerWord) * registerWidth;
+        return (int) ((word >>> shift) & registerMask);
+    }
+
+    private void setRegister(int counter, int j, int value)
+    {
+        long wordIndex = (long) counter * wordsPerCounter + j / registersPerWord;
+        int shift = (j % registersPerWord) * registerWidth;
+        words.set(wordIndex, (words.get(wordIndex) & ~(registerMask << shift)) | ((long) value << shift));
+    }
+
+    /**
+     * @return The hash function applied to the items.
+     */
+    public HashFunction getHashFunction()
+    {
+        return this.hashFunction;
+    }
+
+    /**
+     * @return Number of bits of a register.
+     */
+    public int getRegisterWidth()
+    {
+        return this.registerWidth;
+    }
+
+    /**
+     * Returns p, the number of registers used by each counter.
+     * @return Number of registers.
+     */
+    public int getNumberOfRegisters()
+    {
+        return this.numberOfRegisters;
+    }
+
+    /**
+     * @return Number of counters in this array.
+     */
+    @Override
+    public int getNumberOfCounters()
+    {
+        return this.numberOfCounters;
+    }
+
+    /**
+     * @return Number of 64-bit words holding the registers of all counters, as written by write().
+     */
+    public long getNumberOfWords()
+    {
+        return words.size();
+    }
+
+    /**
+     * Releases the storage of the registers and their sums. For a memory-mapped array this removes its files.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try {
+            words.close();
+        } finally {
+            sums.close();
+        }
+    }
+
+    /**
+     * Overwrites a counter with the counter at the same index of another array.
+     * @param counter index of the counter.
+     * @param from The array to copy from. Must use the same number of registers.
+     */
+    @Override
+    public void copy(int counter, CardinalitySketchArray from)
+    {
+        copy(counter, (HLLCounterArray) from);
+    }
+
+    /**
+     * Overwrites a counter with the counter at the same index of another array.
+     * @param counter index of the counter.
+     * @param from The array to copy from. Must use the same number of registers.
+     */
+    public void copy(int counter, HLLCounterArray from)
+    {
+        long offset = (long) counter * wordsPerCounter;
+        for (int i = 0; i < wordsPerCounter; i++){
+            this.words.set(offset + i, from.words.get(offset + i));
+        }
+        this.sums.set(2L * counter, from.sums.get(2L * counter));
+        this.sums.set(2L * counter + 1, from.sums.get(2L * counter + 1));
+    }
+
+    /**
+     * Makes a union of a counter in this array with a counter of another (or the same) array.
+     * NOTE: This changes this counter and does not change the argument counter.
+     * Complexity: O(m / registers per word), all registers in a word are maximised at once.
+     * @param counter index of the counter to change.
+     * @param other The array containing the counter to union with.
+     * @param otherCounter index of the counter in other.
+     * @return Whether this counter has been changed.
+     */
+    @Override
+    public boolean union(int counter, CardinalitySketchArray other, int otherCounter)
+    {
+        return union(counter, (HLLCounterArray) other, otherCounter);
+    }
+
+    /**
+     * Makes a union of a counter in this array with a counter of another (or the same) array.
+     * NOTE: This changes this counter and does not change the argument counter.
+     * Complexity: O(m / registers per word), all registers in a word are maximised at once.
+     * @param counter index of the counter to change.
+     * @param other The array containing the counter to union with.
+     * @param otherCounter index of the counter in other.
+     * @return Whether this counter has been changed.
+     */
+    public boolean union(int counter, HLLCounterArray other, int otherCounter)
+    {
+        boolean changed = false;
+        long offset = (long) counter * wordsPerCounter;
+        long otherOffset = (long) otherCounter * wordsPerCounter;
+        double sumChange = 0;
+        int filled = 0;             // number of empty registers that rose.
+
+        for (int i = 0; i < wordsPerCounter; i++){
+            long x = this.words.get(offset + i);
+            long y = other.words.get(otherOffset + i);
+            if (y == 0) continue;      // common in the first iterations, nothing to raise.
+            long smaller = lessThan(x, y);
+            if (smaller != 0){
+                // Spread the high bit of every smaller register over the whole register and take y there.
+                long mask = (smaller >>> (registerWidth - 1)) * registerMask;
+                this.words.set(offset + i, x ^ ((x ^ y) & mask));
+                changed = true;
+
+                // Only the raised registers contribute to the change of the register sum.
+                while (smaller != 0){
+                    int shift = Long.numberOfTrailingZeros(smaller) - (registerWidth - 1);
+                    int oldVal = (int) ((x >>> shift) & registerMask);
+                    sumChange += HLLCounter.INVERSE_POWERS_OF_TWO[(int) ((y >>> shift) & registerMask)] - HLLCounter.INVERSE_POWERS_OF_TWO[oldVal];
+                    if (oldVal == 0) filled++;
+                    smaller &= smaller - 1;
+                }
+            }
+        }
+
+        if (changed) addToSums(counter, sumChange, filled);
+        return changed;
+    }
+
+    /**
+     * Estimates the size a counter would have with fewer registers, for every lower precision at once, without
+     * adding the items again. Register j of a counter with 2^b registers holds the items whose hash starts with the
+     * b bits of j. With b - 1 bits registers 2j and 2j + 1 fall together, and the last index bit becomes the first bit
+     * of the leading zeroes: M'[j] = max(M[2j] + 1 if M[2j] > 0, 1 if M[2j + 1] > 0). This is exactly the counter
+     * of the same items with 2^(b-1) registers, so folding commutes with union.
+     * Complexity: O(m).
+     * @param counter index of the counter.
+     * @param sizes receives at index i the estimated size with 2^(b-i) registers, for i from 0 to sizes.length - 1.
+     * @param registers scratch space of at least getNumberOfRegisters() ints, reused by the caller between calls.
+     * @throws InvalidParameterException if sizes asks for fewer than one register.
+     */
+    public void getFoldedSizes(int counter, long[] sizes, int[] registers) throws InvalidParameterException
+    {
+        if (sizes.length > b + 1) throw new InvalidParameterException("Can not fold " + numberOfRegisters + " registers " + (sizes.length - 1) + " times");
+        for (int j = 0; j < numberOfRegisters; j++) registers[j] = getRegister(counter, j);
+        sizes[0] = getSize(counter);
+
+        int maxValue = Math.min(hashFunction.getWidth() + 1, maxRegisterValue);
+        int length = numberOfRegisters;
+        for (int i = 1; i < sizes.length; i++){
+            length /= 2;
+            double registerSum = 0;
+            int empty = 0;
+            for (int j = 0; j < length; j++){
+                int low = registers[2 * j];
+                int high = registers[2 * j + 1];
+                int folded = Math.max(low > 0 ? Math.min(low + 1, maxValue) : 0, high > 0 ? 1 : 0);
+                registers[j] = folded;
+                registerSum += HLLCounter.INVERSE_POWERS_OF_TWO[folded];
+                if (folded == 0) empty++;
+            }
+            sizes[i] = HLLCounter.estimateSize(registerSum, empty, length, hashFunction.getWidth());
+        }
+    }
+
+    @Override
+    public String getDescription()
+    {
+        return String.format("HyperLogLog(b=%d, w=%d, %s)", b, registerWidth, hashFunction.getClass().getSimpleName());
+    }
+
+    @Override
+    public long getSerializedSize()
+    {
+        return words.size() * Long.BYTES;
+    }
+
+    /**
+     * Writes the registers of all counters to a channel, as the sequence of their words.
+     * @param channel channel to write to.
+     * @throws IOException
+     */
+    @Override
+    public void write(WritableByteChannel channel) throws IOException
+    {
+        words.write(channel);
+    }
+
+    /**
+     * Replaces the registers of all counters with those read from a channel, as written by write().
+     * The counters must have the same number of registers as the written ones.
+     * @param channel channel to read from.
+     * @throws IOException also when the channel ends before all words are read.
+     */
+    @Override
+    public void read(ReadableByteChannel channel) throws IOException
+    {
+        words.read(channel);
+        for (int counter = 0; counter < numberOfCounters; counter++){
+            recomputeSums(counter);
+        }
+    }
+
+    /**
+     * Computes the register sum and number of empty registers of a counter from scratch.
+     */
+    private void recomputeSums(int counter)
+    {
+        double registerSum = 0;
+        int empty = 0;
+        for (int j = 0; j < numberOfRegisters; j++){
+            int regval = getRegister(counter, j);
+            registerSum += HLLCounter.INVERSE_POWERS_OF_TWO[regval];
+            if (regval == 0) empty++;
+        }
+        setSums(counter, registerSum, empty);
+    }
+
+    private void setSums(int counter, double registerSum, int empty)
+    {
+        sums.set(2L * counter, Double.doubleToRawLongBits(registerSum));
+        sums.set(2L * counter + 1, empty);
+    }
+
+    /**
+     * Updates the register sum and number of empty registers of a counter after some of its registers rose.
+     * @param sumChange change of the sum of 2^-M[j].
+     * @param filled number of raised registers that were empty.
+     */
+    private void addToSums(int counter, double sumChange, int filled)
+    {
+        long index = 2L * counter;
+        sums.set(index, Double.doubleToRawLongBits(Double.longBitsToDouble(sums.get(index)) + sumChange));
+        if (filled != 0) sums.set(index + 1, sums.get(index + 1) - filled);
+    }
+
+    /**
+     * Broadword unsigned comparison of all registers in two words.
+     * (x | H) - (y & ~H) sets the high bit of a register when the low bits of x are at least those of y,
+     * the rest of the expression corrects this for the high bits themselves.
+     * @return word with the high bit of a register set iff that register of x is smaller than that of y.
+     */
+    private long lessThan(long x, long y)
+    {
+        return ((((x | highBits) - (y & ~highBits)) | (x ^ y)) ^ (x | ~y)) & highBits;
+    }
+
+    /**
+     * @return word with the lowest bit of each of the registers in a word set.
+     */
+    private static long lowBits(int registerWidth, int registersPerWord)
+    {
+        long lowBits = 0;
+        for (int i = 0; i < registersPerWord; i++){
+            lowBits |= 1L << (i * registerWidth);
+        }
+        return lowBits;
+    }
+
+    /**
+     * Returns the size of a counter. Including the same corrections on lower and upper bound as HLLCounter.getSize().
+     * Complexity: O(1), the register sum is maintained by add and union.
+     * @param counter index of the counter.
+     * @return The estimated cardinality of the counter.
+     */
+    @Override
+    public long getSize(int counter)
+    {
+        long index = 2L * counter;
+        return HLLCounter.estimateSize(Double.longBitsToDouble(sums.get(index)), (int) sums.get(index + 1), numberOfRegisters, hashFunction.getWidth());
+    }
+}
@@ -0,0 +1,27 @@
+package utwente.jjw.meijer.hll;
+
+
+/**
+ * Hash function for the items added to HyperLogLog counters.
+ *
+ * Hashes are returned as a long, a hash of fewer than 64 bits is stored in the highest bits. The register index is
+ * therefore always given by the highest b bits, whatever the width, and the remaining bits of the width are used for
+ * the number of leading zeroes. See HLLCounter.getRegisterIndex(long) and HLLCounter.getLeadingZeroes(long, int).
+ *
+ * Implementations must not allocate, they are called for every item added to a counter.
+ */
+public interface HashFunction {
+
+    /**
+     * @return Number of bits of the hashes, 32 or 64.
+     */
+    int getWidth();
+
+    /**
+     * Hashes an item. Different seeds give independent hash functions.
+     * @param item item to hash.
+     * @param seed seed of the hash function.
+     * @return hash stored in the highest getWidth() bits.
+     */
+    long hash(int item, int seed);
+}
@@ -0,0 +1,56 @@
+package utwente.jjw.meijer.hll;
+
+import java.security.InvalidParameterException;
+
+
+/**
+ * Counter storage on the heap, backed by a single long[].
+ */
+public class HeapCounterStorage implements CounterStorage {
+
+    private final long[] words;
+
+    /**
+     * @param size Number of words.
+     * @throws InvalidParameterException if the words do not fit in a single array.
+     */
+    public HeapCounterStorage(long size) throws InvalidParameterException
+    {
+        if (size > Integer.MAX_VALUE - 8){
+            throw new InvalidParameterException("Too many words to fit in a single array");
+        }
+        this.words = new long[(int) size];
+    }
+
+    @Override
+    public long get(long index)
+    {
+        return words[(int) index];
+    }
+
+    @Override
+    public void set(long index, long value)
+    {
+        words[(int) index] = value;
+    }
+
+    @Override
+    public long size()
+    {
+        return words.length;
+    }
+
+    /**
+     * @return The array holding the words, for loops that run faster over an array than through get and set.
+     */
+    long[] getWords()
+    {
+        return words;
+    }
+
+    @Override
+    public void close()
+    {
+        // Nothing to release, the array is garbage collected.
+    }
+}
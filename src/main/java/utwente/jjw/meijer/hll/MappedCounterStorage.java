@@ -0,0 +1,98 @@
+package utwente.jjw.meijer.hll;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Counter storage in a memory-mapped file. Allows counters that do not fit on the heap, or even in RAM,
+ * in which case the operating system pages the words in and out of the file.
+ *
+ * A single mapping is limited to 2GB, hence the file is mapped in segments of 2^27 words (1GB).
+ * Words are written in native byte order, so files are not portable between machines.
+ */
+public class MappedCounterStorage implements CounterStorage {
+
+    private static final int SEGMENT_SHIFT = 27;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;      // words per segment.
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private final File file;
+    private final LongBuffer[] segments;
+    private final long size;
+    private final boolean deleteOnClose;
+
+    /**
+     * Maps a file as counter storage. The file is created, or truncated when it exists, to hold size words.
+     * All words start at zero, also those of a file left behind by a crashed run.
+     * @param file File to map.
+     * @param size Number of words.
+     * @param deleteOnClose Whether the file should be removed when the storage is closed.
+     * @throws IOException
+     */
+    public MappedCounterStorage(File file, long size, boolean deleteOnClose) throws IOException
+    {
+        this.file = file;
+        this.size = size;
+        this.deleteOnClose = deleteOnClose;
+
+        int numberOfSegments = (int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+        this.segments = new LongBuffer[numberOfSegments];
+
+        // The mapping stays valid after the channel is closed.
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")){
+            randomAccessFile.setLength(0);
+            randomAccessFile.setLength(size * Long.BYTES);
+            FileChannel channel = randomAccessFile.getChannel();
+            for (int i = 0; i < numberOfSegments; i++){
+                long start = i * SEGMENT_SIZE;
+                long words = Math.min(SEGMENT_SIZE, size - start);
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start * Long.BYTES, words * Long.BYTES)
+                    .order(ByteOrder.nativeOrder())
+                    .asLongBuffer();
+            }
+        }
+    }
+
+    @Override
+    public long get(long index)
+    {
+        return segments[(int) (index >>> SEGMENT_SHIFT)].get((int) (index & SEGMENT_MASK));
+    }
+
+    @Override
+    public void set(long index, long value)
+    {
+        segments[(int) (index >>> SEGMENT_SHIFT)].put((int) (index & SEGMENT_MASK), value);
+    }
+
+    @Override
+    public long size()
+    {
+        return size;
+    }
+
+    /**
+     * @return The file backing this storage.
+     */
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Drops the mappings. They are released by the garbage collector, Java offers no way to unmap explicitly.
+     */
+    @Override
+    public void close()
+    {
+        for (int i = 0; i < segments.length; i++){
+            segments[i] = null;
+        }
+        if (deleteOnClose) file.delete();
+    }
+}
@@ -0,0 +1,37 @@
+package utwente.jjw.meijer.hll;
+
+
+/**
+ * 64-bit hash built on fmix64, the finalization mix of MurmurHash3.
+ * The seed and the item are packed into one 64-bit word, offset by the golden ratio so that item 0 with seed 0 does
+ * not hash to 0, and mixed. As fmix64 is a bijection, different items never collide for the same seed.
+ */
+public final class Murmur3Fmix64Hash implements HashFunction {
+
+    private static final long GOLDEN_RATIO = 0x9e3779b97f4a7c15L;
+
+    @Override
+    public int getWidth()
+    {
+        return 64;
+    }
+
+    @Override
+    public long hash(int item, int seed)
+    {
+        return fmix64((((long) seed << 32) | (item & 0xffffffffL)) + GOLDEN_RATIO);
+    }
+
+    /**
+     * @return MurmurHash3's finalization mix of k.
+     */
+    public static long fmix64(long k)
+    {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
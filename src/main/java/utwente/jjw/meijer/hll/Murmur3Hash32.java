@@ -0,0 +1,47 @@
+package utwente.jjw.meijer.hll;
+
+
+/**
+ * 32-bit MurmurHash3 of an int. Gives exactly the same hashes as Guava's Hashing.murmur3_32(seed).hashInt(item),
+ * without allocating a HashCode for every item.
+ */
+public final class Murmur3Hash32 implements HashFunction {
+
+    private static final int C1 = 0xcc9e2d51;
+    private static final int C2 = 0x1b873593;
+
+    @Override
+    public int getWidth()
+    {
+        return 32;
+    }
+
+    @Override
+    public long hash(int item, int seed)
+    {
+        return (long) hash32(item, seed) << 32;
+    }
+
+    /**
+     * @return The 32-bit MurmurHash3 of the four bytes of an item.
+     */
+    public static int hash32(int item, int seed)
+    {
+        int k1 = item * C1;
+        k1 = Integer.rotateLeft(k1, 15);
+        k1 *= C2;
+
+        int h1 = seed ^ k1;
+        h1 = Integer.rotateLeft(h1, 13);
+        h1 = h1 * 5 + 0xe6546b64;
+
+        // finalization mix, with the length of the input in bytes.
+        h1 ^= Integer.BYTES;
+        h1 ^= h1 >>> 16;
+        h1 *= 0x85ebca6b;
+        h1 ^= h1 >>> 13;
+        h1 *= 0xc2b2ae35;
+        h1 ^= h1 >>> 16;
+        return h1;
+    }
+}
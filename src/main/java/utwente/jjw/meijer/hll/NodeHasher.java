@@ -1,19 +1,23 @@
 package utwente.jjw.meijer.hll;
 
 
-import com.google.common.hash.Hashing;
-import com.google.common.hash.HashCode;;
-
-
 public class NodeHasher
 {
     /**
-     * Hash an int using Google's MurmurHash function, which has an approximate uniform distribution.
+     * Hash an int using MurmurHash3, which has an approximate uniform distribution.
+     * Equal to Google's Hashing.murmur3_32().hashInt(), without allocating.
      */
     public static int hash(int toHash)
     {
-        HashCode hash = Hashing.murmur3_32().hashInt(toHash);
-        return hash.asInt(); 
+        return Murmur3Hash32.hash32(toHash, 0);
     }
-}
 
+    /**
+     * Hash an int using MurmurHash with a seed. Different seeds give independent hash functions,
+     * seed 0 gives the same hash as hash(int).
+     */
+    public static int hash(int toHash, int seed)
+    {
+        return Murmur3Hash32.hash32(toHash, seed);
+    }
+}
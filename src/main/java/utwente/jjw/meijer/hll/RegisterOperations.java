@@ -0,0 +1,56 @@
+package utwente.jjw.meijer.hll;
+
+
+/**
+ * Operations on the byte registers of an HLLCounter, which can be computed on many registers at once.
+ *
+ * ScalarRegisterOperations works on every JVM. VectorRegisterOperations uses the Vector API of JDK 16 and later,
+ * it is only compiled when the vector-api profile of the pom is enabled (mvn -Pvector-api or -Dvector-api) and only
+ * usable when the JVM runs with --add-modules jdk.incubator.vector. select() picks the vector implementation when
+ * both hold.
+ *
+ * Only HLLCounter uses these operations. HyperBall counts with HLLCounterArray, which packs its registers in words and
+ * maximises them with its own broadword union, so the choice, and the vector-api profile, has no effect on HyperBall
+ * runs.
+ */
+public interface RegisterOperations {
+
+    /**
+     * Name of the system property that disables the vector implementation when set to true.
+     */
+    String SCALAR_PROPERTY = "hyperball.scalarRegisters";
+
+    /**
+     * Raises every register to the corresponding register of other.
+     * @param registers the registers to change.
+     * @param other the registers to take the maximum with, at least as many.
+     * @return Whether any register has changed.
+     */
+    boolean max(byte[] registers, byte[] other);
+
+    /**
+     * @param registers the registers.
+     * @return Number of registers equal to zero.
+     */
+    int countZeroes(byte[] registers);
+
+    /**
+     * Returns the vector implementation when the JVM supports it, the scalar implementation otherwise.
+     * The vector implementation is loaded reflectively, so this class does not depend on the Vector API.
+     * @return The fastest available register operations.
+     */
+    static RegisterOperations select()
+    {
+        if (!Boolean.getBoolean(SCALAR_PROPERTY)){
+            try {
+                Class<?> vectorClass = Class.forName(RegisterOperations.class.getPackage().getName() + ".VectorRegisterOperations");
+                RegisterOperations vector = (RegisterOperations) vectorClass.getDeclaredConstructor().newInstance();
+                vector.countZeroes(new byte[1]);        // links the Vector API, fails when its module is missing.
+                return vector;
+            } catch (ReflectiveOperationException | LinkageError e){
+                // Not compiled, or the JVM lacks jdk.incubator.vector.
+            }
+        }
+        return new ScalarRegisterOperations();
+    }
+}
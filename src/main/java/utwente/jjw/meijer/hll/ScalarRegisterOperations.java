@@ -0,0 +1,31 @@
+package utwente.jjw.meijer.hll;
+
+
+/**
+ * Register operations one register at a time, available on every JVM.
+ */
+public class ScalarRegisterOperations implements RegisterOperations {
+
+    @Override
+    public boolean max(byte[] registers, byte[] other)
+    {
+        boolean changed = false;
+        for (int i = 0; i < registers.length; i++){
+            if (other[i] > registers[i]){
+                registers[i] = other[i];
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    @Override
+    public int countZeroes(byte[] registers)
+    {
+        int zeroes = 0;
+        for (int i = 0; i < registers.length; i++){
+            if (registers[i] == 0) zeroes++;
+        }
+        return zeroes;
+    }
+}
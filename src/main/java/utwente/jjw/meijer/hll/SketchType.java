@@ -0,0 +1,23 @@
+package utwente.jjw.meijer.hll;
+
+
+/**
+ * The kinds of CardinalitySketchArray HyperBall can count with.
+ */
+public enum SketchType {
+
+    /**
+     * HyperLogLog with registers of 4 to 8 bits, see HLLCounterArray.
+     */
+    HYPERLOGLOG,
+
+    /**
+     * HyperLogLog with 4-bit registers relative to a base value per counter, see TailCutHLLArray.
+     */
+    TAILCUT_HYPERLOGLOG,
+
+    /**
+     * Exact bitsets of the nodes, see BitsetSketchArray. Needs n bits per node.
+     */
+    BITSET
+}
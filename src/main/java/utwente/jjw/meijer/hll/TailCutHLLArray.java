@@ -0,0 +1,383 @@
+package utwente.jjw.meijer.hll;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.InvalidParameterException;
+
+
+/**
+ * Array of HyperLogLog counters with 4-bit registers, following HLL-TailCut (Xiao, Zhou and Chen, Better with fewer
+ * bits: Improving the performance of cardinality estimation of large data streams, INFOCOM 2017).
+ *
+ * The registers of a counter are close to each other, so every counter keeps a base value B and its registers only
+ * store the offset M[j] - B in 4 bits. Once no register is at the base any more, B is raised by one and all offsets
+ * are lowered. Offsets above 15 are cut off, which happens with a probability of about p * 2^-15 per counter and only
+ * costs a little accuracy. A register thus takes 4 bits instead of the 5 to 6 bits of HLLCounterArray, plus a byte
+ * per counter for the base.
+ *
+ * Counter i occupies the words [i * p / 16, (i + 1) * p / 16), with register j at bit offset (j % 16) * 4 of word
+ * j / 16. Unions of counters with the same base use the broadword maximum of HLLCounterArray, other unions compare
+ * the registers one by one. The estimate is that of HyperLogLog on the registers B + M[j], and like HLLCounterArray
+ * the register sums are kept up to date so getSize() is O(1). They are kept in a CounterStorage of two words per
+ * counter, memory-mapped next to the registers when those are mapped.
+ */
+public class TailCutHLLArray implements CardinalitySketchArray {
+
+    public static final int REGISTER_WIDTH = 4;
+    public static final int MIN_NUMBER_OF_BITS = 4;            // at least a word of registers per counter.
+    private static final int REGISTERS_PER_WORD = Long.SIZE / REGISTER_WIDTH;
+    private static final long REGISTER_MASK = (1L << REGISTER_WIDTH) - 1;
+    private static final int MAX_OFFSET = (int) REGISTER_MASK;
+    private static final long LOW_BITS = 0x1111111111111111L;   // lowest bit of every register.
+    private static final long HIGH_BITS = LOW_BITS << (REGISTER_WIDTH - 1);
+
+    private final CounterStorage words;
+    private final byte[] bases;                 // base value B of every counter.
+    private final HashFunction hashFunction;
+    private final CounterStorage sums;          // bits of the sum of 2^-(B + M[j]) and the number of registers at the base per counter.
+    private final int b;
+    private final int numberOfRegisters;
+    private final int numberOfCounters;
+    private final int wordsPerCounter;
+
+    /**
+     * Creates an array of empty counters on the heap.
+     * @param numberOfCounters Number of counters, for HyperBall this is the number of nodes.
+     * @param b Number of bits used for register identification, at least 4.
+     * @param hashFunction Hash function applied to the items.
+     * @throws InvalidParameterException if b is too small or the registers do not fit in a single array.
+     */
+    public TailCutHLLArray(int numberOfCounters, int b, HashFunction hashFunction) throws InvalidParameterException
+    {
+        this(numberOfCounters, b, hashFunction, new HeapCounterStorage(getNumberOfWords(numberOfCounters, checkNumberOfBits(b))),
+            new HeapCounterStorage(2L * numberOfCounters));
+    }
+
+    /**
+     * Creates an array of empty counters whose registers are in a memory-mapped file. The register sums are mapped
+     * from the file with ".sums" appended to its name. Both files are deleted when the array is closed. The bases are
+     * kept on the heap.
+     * @param numberOfCounters Number of counters, for HyperBall this is the number of nodes.
+     * @param b Number of bits used for register identification, at least 4.
+     * @param hashFunction Hash function applied to the items.
+     * @param file File to store the registers in.
+     * @throws IOException
+     */
+    public TailCutHLLArray(int numberOfCounters, int b, HashFunction hashFunction, File file) throws IOException
+    {
+        this(numberOfCounters, b, hashFunction, new MappedCounterStorage(file, getNumberOfWords(numberOfCounters, checkNumberOfBits(b)), true),
+            new MappedCounterStorage(new File(file.getPath() + ".sums"), 2L * numberOfCounters, true));
+    }
+
+    private TailCutHLLArray(int numberOfCounters, int b, HashFunction hashFunction, CounterStorage storage, CounterStorage sums)
+    {
+        this.b = b;
+        this.hashFunction = hashFunction;
+        this.numberOfRegisters = 1 << b;
+        this.numberOfCounters = numberOfCounters;
+        this.wordsPerCounter = numberOfRegisters / REGISTERS_PER_WORD;
+        this.words = storage;
+        this.bases = new byte[numberOfCounters];
+        this.sums = sums;
+
+        // All registers start at zero, each contributing 2^0 to the register sum.
+        for (int counter = 0; counter < numberOfCounters; counter++){
+            sums.set(2L * counter, Double.doubleToRawLongBits(numberOfRegisters));
+            sums.set(2L * counter + 1, numberOfRegisters);
+        }
+    }
+
+    private static int checkNumberOfBits(int b) throws InvalidParameterException
+    {
+        if (b < MIN_NUMBER_OF_BITS) throw new InvalidParameterException("Tail cut counters need at least " + MIN_NUMBER_OF_BITS + " bits");
+        return b;
+    }
+
+    /**
+     * @return Number of words needed to store the registers of all counters.
+     */
+    private static long getNumberOfWords(int numberOfCounters, int b)
+    {
+        return (long) numberOfCounters * ((1 << b) / REGISTERS_PER_WORD);
+    }
+
+    @Override
+    public boolean add(int counter, int item, int seed)
+    {
+        long hash = hashFunction.hash(item, seed);
+        int index = (int) (hash >>> (64 - b));                          // first b bits are the register index.
+        int val = Math.min(Long.numberOfLeadingZeros(hash << b), hashFunction.getWidth()) + 1;   // leading zeroes of the remaining bits + 1.
+        int base = bases[counter];
+        if (val <= base) return false;
+
+        int offset = Math.min(val - base, MAX_OFFSET);                 // cut off the tail.
+        int oldOffset = getOffset(counter, index);
+        if (offset <= oldOffset) return false;
+
+        long wordIndex = (long) counter * wordsPerCounter + index / REGISTERS_PER_WORD;
+        int shift = (index % REGISTERS_PER_WORD) * REGISTER_WIDTH;
+        words.set(wordIndex, (words.get(wordIndex) & ~(REGISTER_MASK << shift)) | ((long) offset << shift));
+        offsetRaised(counter, base, oldOffset, offset);
+        if (getZeroOffsets(counter) == 0) rebase(counter);
+        return true;
+    }
+
+    /**
+     * Gets register value, the base of the counter plus the offset of the register.
+     * @param counter index of the counter.
+     * @param j index of the register.
+     * @return register value.
+     */
+    public int getRegister(int counter, int j)
+    {
+        return bases[counter] + getOffset(counter, j);
+    }
+
+    private int getOffset(int counter, int j)
+    {
+        long word = words.get((long) counter * wordsPerCounter + j / REGISTERS_PER_WORD);
+        return (int) ((word >>> ((j % REGISTERS_PER_WORD) * REGISTER_WIDTH)) & REGISTER_MASK);
+    }
+
+    /**
+     * @param counter index of the counter.
+     * @return The base value of the counter, all its registers are at least this value.
+     */
+    public int getBase(int counter)
+    {
+        return bases[counter];
+    }
+
+    /**
+     * Returns p, the number of registers used by each counter.
+     * @return Number of registers.
+     */
+    public int getNumberOfRegisters()
+    {
+        return this.numberOfRegisters;
+    }
+
+    @Override
+    public int getNumberOfCounters()
+    {
+        return this.numberOfCounters;
+    }
+
+    @Override
+    public void copy(int counter, CardinalitySketchArray from)
+    {
+        TailCutHLLArray other = (TailCutHLLArray) from;
+        long offset = (long) counter * wordsPerCounter;
+        for (int i = 0; i < wordsPerCounter; i++){
+            this.words.set(offset + i, other.words.get(offset + i));
+        }
+        this.bases[counter] = other.bases[counter];
+        this.sums.set(2L * counter, other.sums.get(2L * counter));
+        this.sums.set(2L * counter + 1, other.sums.get(2L * counter + 1));
+    }
+
+    /**
+     * Makes a union of a counter in this array with a counter of another (or the same) array.
+     * NOTE: This changes this counter and does not change the argument counter.
+     * Complexity: O(m / 16) when both counters have the same base, O(m) otherwise.
+     * @param counter index of the counter to change.
+     * @param other The array containing the counter to union with.
+     * @param otherCounter index of the counter in other.
+     * @return Whether this counter has been changed.
+     */
+    @Override
+    public boolean union(int counter, CardinalitySketchArray other, int otherCounter)
+    {
+        TailCutHLLArray that = (TailCutHLLArray) other;
+        int base = bases[counter];
+        int shift = that.bases[otherCounter] - base;        // offsets of the other counter relative to this base.
+        long offset = (long) counter * wordsPerCounter;
+        long otherOffset = (long) otherCounter * wordsPerCounter;
+        boolean changed = false;
+
+        for (int i = 0; i < wordsPerCounter; i++){
+            long y = that.words.get(otherOffset + i);
+            if (y == 0 && shift <= 0) continue;        // all registers of the other counter are at most this base.
+            long x = this.words.get(offset + i);
+            long raised = shift == 0 ? maximum(counter, base, x, y) : maximum(counter, base, x, y, shift);
+            if (raised != x){
+                this.words.set(offset + i, raised);
+                changed = true;
+            }
+        }
+
+        if (changed && getZeroOffsets(counter) == 0) rebase(counter);
+        return changed;
+    }
+
+    /**
+     * Broadword maximum of the registers in two words of counters with the same base, see HLLCounterArray.union().
+     * @return the word with the maximum of every register.
+     */
+    private long maximum(int counter, int base, long x, long y)
+    {
+        long smaller = ((((x | HIGH_BITS) - (y & ~HIGH_BITS)) | (x ^ y)) ^ (x | ~y)) & HIGH_BITS;
+        if (smaller == 0) return x;
+
+        // Only the raised registers contribute to the change of the register sum.
+        long mask = (smaller >>> (REGISTER_WIDTH - 1)) * REGISTER_MASK;
+        while (smaller != 0){
+            int shift = Long.numberOfTrailingZeros(smaller) - (REGISTER_WIDTH - 1);
+            offsetRaised(counter, base, (int) ((x >>> shift) & REGISTER_MASK), (int) ((y >>> shift) & REGISTER_MASK));
+            smaller &= smaller - 1;
+        }
+        return x ^ ((x ^ y) & mask);
+    }
+
+    /**
+     * Maximum of the registers in two words of counters with different bases, register by register.
+     * @param baseShift base of the other counter minus the base of this counter.
+     * @return the word with the maximum of every register, relative to the base of this counter.
+     */
+    private long maximum(int counter, int base, long x, long y, int baseShift)
+    {
+        long result = x;
+        for (int shift = 0; shift < Long.SIZE; shift += REGISTER_WIDTH){
+            int otherOffset = (int) ((y >>> shift) & REGISTER_MASK) + baseShift;
+            if (otherOffset <= 0) continue;
+            otherOffset = Math.min(otherOffset, MAX_OFFSET);
+            int thisOffset = (int) ((x >>> shift) & REGISTER_MASK);
+            if (otherOffset > thisOffset){
+                result = (result & ~(REGISTER_MASK << shift)) | ((long) otherOffset << shift);
+                offsetRaised(counter, base, thisOffset, otherOffset);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Updates the register sum and number of registers at the base after a register of a counter rose.
+     */
+    private void offsetRaised(int counter, int base, int oldOffset, int newOffset)
+    {
+        long index = 2L * counter;
+        double registerSum = Double.longBitsToDouble(sums.get(index));
+        registerSum += HLLCounter.INVERSE_POWERS_OF_TWO[base + newOffset] - HLLCounter.INVERSE_POWERS_OF_TWO[base + oldOffset];
+        sums.set(index, Double.doubleToRawLongBits(registerSum));
+        if (oldOffset == 0) sums.set(index + 1, sums.get(index + 1) - 1);
+    }
+
+    /**
+     * @return Number of registers of a counter at its base.
+     */
+    private int getZeroOffsets(int counter)
+    {
+        return (int) sums.get(2L * counter + 1);
+    }
+
+    /**
+     * Raises the base of a counter while none of its registers is at the base. The register values B + M[j] and
+     * therefore the register sum do not change.
+     */
+    private void rebase(int counter)
+    {
+        long offset = (long) counter * wordsPerCounter;
+        while (getZeroOffsets(counter) == 0){
+            bases[counter]++;
+            int zeroes = 0;
+            for (int i = 0; i < wordsPerCounter; i++){
+                long word = words.get(offset + i) - LOW_BITS;      // every register is at least 1.
+                words.set(offset + i, word);
+                zeroes += countZeroRegisters(word);
+            }
+            sums.set(2L * counter + 1, zeroes);
+        }
+    }
+
+    /**
+     * @return Number of registers equal to zero in a word.
+     */
+    private static int countZeroRegisters(long word)
+    {
+        long nonZero = word | (word >>> 1);
+        nonZero |= nonZero >>> 2;
+        return REGISTERS_PER_WORD - Long.bitCount(nonZero & LOW_BITS);
+    }
+
+    /**
+     * Returns the size of a counter, with the same corrections as HLLCounter.getSize().
+     * Complexity: O(1), the register sum is maintained by add and union.
+     * @param counter index of the counter.
+     * @return The estimated cardinality of the counter.
+     */
+    @Override
+    public long getSize(int counter)
+    {
+        int emptyRegisters = bases[counter] == 0 ? getZeroOffsets(counter) : 0;
+        return HLLCounter.estimateSize(Double.longBitsToDouble(sums.get(2L * counter)), emptyRegisters, numberOfRegisters, hashFunction.getWidth());
+    }
+
+    @Override
+    public String getDescription()
+    {
+        return String.format("TailCutHyperLogLog(b=%d, %s)", b, hashFunction.getClass().getSimpleName());
+    }
+
+    @Override
+    public long getSerializedSize()
+    {
+        return words.size() * Long.BYTES + numberOfCounters;
+    }
+
+    /**
+     * Writes the registers of all counters followed by their bases to a channel.
+     * @param channel channel to write to.
+     * @throws IOException
+     */
+    @Override
+    public void write(WritableByteChannel channel) throws IOException
+    {
+        words.write(channel);
+        ByteBuffer buffer = ByteBuffer.wrap(bases);
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    /**
+     * Replaces the registers and bases of all counters with those read from a channel, as written by write().
+     * @param channel channel to read from.
+     * @throws IOException also when the channel ends before all counters are read.
+     */
+    @Override
+    public void read(ReadableByteChannel channel) throws IOException
+    {
+        words.read(channel);
+        ByteBuffer buffer = ByteBuffer.wrap(bases);
+        while (buffer.hasRemaining()){
+            if (channel.read(buffer) < 0) throw new EOFException("Channel ended before the bases were read");
+        }
+
+        for (int counter = 0; counter < numberOfCounters; counter++){
+            double registerSum = 0;
+            int zeroes = 0;
+            for (int j = 0; j < numberOfRegisters; j++){
+                int offset = getOffset(counter, j);
+                registerSum += HLLCounter.INVERSE_POWERS_OF_TWO[bases[counter] + offset];
+                if (offset == 0) zeroes++;
+            }
+            sums.set(2L * counter, Double.doubleToRawLongBits(registerSum));
+            sums.set(2L * counter + 1, zeroes);
+        }
+    }
+
+    /**
+     * Releases the storage of the registers and their sums. For a memory-mapped array this removes its files.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try {
+            words.close();
+        } finally {
+            sums.close();
+        }
+    }
+}
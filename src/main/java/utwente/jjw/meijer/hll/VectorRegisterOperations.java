@@ -0,0 +1,59 @@
+package utwente.jjw.meijer.hll;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+
+/**
+ * Register operations with the Vector API, on as many registers at once as the widest vectors of the CPU hold:
+ * 16 with SSE, 32 with AVX2 and 64 with AVX-512. A counter of 64 registers is a single vector max and compare then.
+ *
+ * Needs JDK 16 or later and --add-modules jdk.incubator.vector, so it is only compiled by the vector-api profile,
+ * which is not enabled by default.
+ * Do not use this class directly, see RegisterOperations.select().
+ */
+public class VectorRegisterOperations implements RegisterOperations {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    @Override
+    public boolean max(byte[] registers, byte[] other)
+    {
+        boolean changed = false;
+        int i = 0;
+        for (int bound = SPECIES.loopBound(registers.length); i < bound; i += SPECIES.length()){
+            ByteVector x = ByteVector.fromArray(SPECIES, registers, i);
+            ByteVector y = ByteVector.fromArray(SPECIES, other, i);
+            VectorMask<Byte> smaller = x.compare(VectorOperators.LT, y);
+            if (smaller.anyTrue()){
+                x.max(y).intoArray(registers, i);
+                changed = true;
+            }
+        }
+
+        // Fewer registers than a vector, only for counters with less than 64 registers on AVX-512.
+        for (; i < registers.length; i++){
+            if (other[i] > registers[i]){
+                registers[i] = other[i];
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    @Override
+    public int countZeroes(byte[] registers)
+    {
+        int zeroes = 0;
+        int i = 0;
+        for (int bound = SPECIES.loopBound(registers.length); i < bound; i += SPECIES.length()){
+            zeroes += ByteVector.fromArray(SPECIES, registers, i).compare(VectorOperators.EQ, (byte) 0).trueCount();
+        }
+        for (; i < registers.length; i++){
+            if (registers[i] == 0) zeroes++;
+        }
+        return zeroes;
+    }
+}
@@ -0,0 +1,126 @@
+package utwente.jjw.meijer.hyperball;
+
+import java.util.Arrays;
+
+
+/**
+ * Bounded ring buffer of batches of decoded successor lists, used to pass them from decoder threads to union threads.
+ * Batches are allocated once and recycled through a second queue, so the pipeline does not allocate while it runs.
+ *
+ * Takers get null once the queue is empty and every producer is done, or when the queue is closed.
+ */
+class AdjacencyBatchQueue {
+
+    /**
+     * The successor lists of consecutive visited nodes. Node i of the batch is nodes[i], its successors are
+     * successors[offsets[i]] to successors[offsets[i + 1] - 1].
+     */
+    static class Batch {
+        int size;
+        final int[] nodes;
+        final int[] offsets;
+        int[] successors;
+
+        Batch(int maxNodes, int arcs)
+        {
+            this.nodes = new int[maxNodes];
+            this.offsets = new int[maxNodes + 1];
+            this.successors = new int[arcs];
+        }
+
+        /**
+         * @return Whether another node with this many successors fits without growing the batch.
+         */
+        boolean fits(int outdegree)
+        {
+            return size < nodes.length && offsets[size] + outdegree <= successors.length;
+        }
+
+        /**
+         * Appends the successor list of a node. A node with more successors than fit in an empty batch grows it.
+         */
+        void add(int node, int[] nodeSuccessors, int outdegree)
+        {
+            int start = offsets[size];
+            if (start + outdegree > successors.length) successors = Arrays.copyOf(successors, start + outdegree);
+            System.arraycopy(nodeSuccessors, 0, successors, start, outdegree);
+            nodes[size] = node;
+            offsets[++size] = start + outdegree;
+        }
+
+        void clear()
+        {
+            size = 0;
+        }
+    }
+
+    private final Batch[] slots;
+    private int head = 0;           // slot of the next batch to take.
+    private int count = 0;
+    private int producers = 0;
+    private boolean closed = false;
+
+    /**
+     * @param capacity Maximum number of batches in the queue.
+     */
+    AdjacencyBatchQueue(int capacity)
+    {
+        this.slots = new Batch[capacity];
+    }
+
+    /**
+     * Starts a pass in which a number of producers put batches.
+     * @param producers number of producers that will call producerDone().
+     */
+    synchronized void open(int producers)
+    {
+        this.producers = producers;
+        this.closed = false;
+    }
+
+    /**
+     * Adds a batch, waits while the queue is full.
+     */
+    synchronized void put(Batch batch) throws InterruptedException
+    {
+        while (count == slots.length && !closed) wait();
+        if (closed) return;
+        slots[(head + count) % slots.length] = batch;
+        count++;
+        notifyAll();
+    }
+
+    /**
+     * Removes the oldest batch, waits while the queue is empty and producers are still running.
+     * @return The batch, null when no batch will come anymore.
+     */
+    synchronized Batch take() throws InterruptedException
+    {
+        while (count == 0 && producers > 0 && !closed) wait();
+        if (count == 0 || closed) return null;
+        Batch batch = slots[head];
+        slots[head] = null;
+        head = (head + 1) % slots.length;
+        count--;
+        notifyAll();
+        return batch;
+    }
+
+    /**
+     * Called by every producer after its last put().
+     */
+    synchronized void producerDone()
+    {
+        producers--;
+        notifyAll();
+    }
+
+    /**
+     * Stops the pass, waiting threads return at once. Used when a stage fails.
+     */
+    synchronized void close()
+    {
+        closed = true;
+        notifyAll();
+    }
+}
@@ -4,8 +4,13 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.imageio.ImageIO;
 
@@ -13,136 +18,270 @@ import org.jfree.chart.JFreeChart;
 
 import it.unimi.dsi.webgraph.ImmutableGraph;
 import it.unimi.dsi.webgraph.LazyIntIterator;
-import it.unimi.dsi.webgraph.NodeIterator;
 
 import utwente.jjw.meijer.utilities.*;
 
 /**
  * Class for performing bfs traversal on graphs to get the distance distribution.
- * Its complexity is (n^2). Too inneficient to do graphs much larger than 10.000
+ * Its complexity is (n^2). Too inneficient to do graphs much larger than 10.000, see MultiSourceBfs for larger graphs.
+ *
+ * Every thread searches with a Workspace that is allocated once: the queue is an int array holding the nodes in the
+ * order they are found, and a node is visited when its mark equals the number of the current search, so nothing is
+ * cleared between searches. The nodes at distance d are a consecutive part of the queue, so the pairs are counted
+ * per level. Successor lists are read through graph.successors(): a BVGraph does not override successorArray(), which
+ * would copy every list into a new array. Only the small iterator of the graph is created per visited node.
+ *
+ * With the transposed graph, see setTransposeGraph(), the searches are direction-optimizing (Beamer et al.). While the
+ * frontier is small a level is expanded top-down, from the frontier to its successors. Once the arcs of the frontier
+ * outnumber the arcs not explored yet by a factor, every unvisited node instead scans its predecessors until it finds
+ * one in the frontier, bottom-up, which skips most arcs in the middle levels of graphs with a small diameter. When the
+ * frontier has shrunk again the search turns back to top-down.
  */
 public class BfsTraversal
 {
+    private static final int SOURCES_PER_TASK = 64;    // sources a thread takes at once.
+    private static final int TOP_DOWN_FACTOR = 14;      // bottom-up once the frontier has more than 1/14 of the unexplored arcs.
+    private static final int BOTTOM_UP_FACTOR = 24;     // top-down again once the frontier has less than 1/24 of the nodes.
 
     private final ImmutableGraph graph;
+    private final int numberOfThreads;
+    private ImmutableGraph transposeGraph = null;       // searches are only top-down when null.
+    private Workspace workspace = null;                 // of the calling thread, created by the first search.
 
     public BfsTraversal(ImmutableGraph graph)
+    {
+        this(graph, 1);
+    }
+
+    /**
+     * Creates a BFS-Traversal that searches from several sources at the same time.
+     * @param graph The graph to traverse, with random access.
+     * @param numberOfThreads The number of threads to use.
+     * @throws InvalidParameterException
+     */
+    public BfsTraversal(ImmutableGraph graph, int numberOfThreads)
     {
         if (!graph.randomAccess()){
             throw new InvalidParameterException("Graph must have random-access enabled");
+        }else if (numberOfThreads < 1){
+            throw new InvalidParameterException("Number of threads must be at least 1");
         }
         this.graph = graph;
+        this.numberOfThreads = numberOfThreads;
     }
 
-    public Integer[] getReachableNodes(int v)
+    /**
+     * Enables direction-optimizing searches, which expand large frontiers bottom-up over the predecessors of nodes.
+     * @param transpose The transposed graph, see Graphs.getTransposeGraph().
+     * @throws InvalidParameterException
+     */
+    public void setTransposeGraph(ImmutableGraph transpose) throws InvalidParameterException
     {
-        boolean[] discovered = new boolean[graph.numNodes()]; // Initialize empty array of labels.
-        for (int i = 0; i < discovered.length; i++){
-            discovered[i] = false;
+        if (!transpose.randomAccess()){
+            throw new InvalidParameterException("Transposed graph must allow for random access");
+        }else if (transpose.numNodes() != graph.numNodes()){
+            throw new InvalidParameterException("Transposed graph must have the same number of nodes");
         }
+        this.transposeGraph = transpose;
+        this.workspace = null;          // the workspace keeps the graphs it searches.
+    }
 
-        // List for storing reachable nodes
-        ArrayList<Integer> reachableNodes = new ArrayList<>();
-        reachableNodes.add(v); // v also belongs to reachable nodes.
-
-        Queue<Integer> queue = new LinkedList<Integer>();
-        discovered[v] = true;
-        queue.add(v);
-
-        while (!queue.isEmpty()){
-            int node = queue.poll();
-            LazyIntIterator lazyiter = graph.successors(node);
-
-            int neighbor;
-            while ((neighbor = lazyiter.nextInt()) != -1) {
-                if (!discovered[neighbor]) {
-                    discovered[neighbor] = true;
-                    reachableNodes.add(neighbor);
-                    queue.add(neighbor);
-                }
-            }
-        }
+    /**
+     * Finds the nodes reachable from a node. Reuses the arrays of earlier calls, so calls on the same BfsTraversal
+     * must not run at the same time.
+     * @param v The node to search from.
+     * @return v and the nodes reachable from it.
+     */
+    public Integer[] getReachableNodes(int v)
+    {
+        Workspace workspace = getWorkspace();
+        int reached = workspace.search(v, null);
 
-        Integer[] result = new Integer[reachableNodes.size()];
-        reachableNodes.toArray(result);
+        // v and the nodes reachable from it, by distance. Within a distance in the order they were found.
+        Integer[] result = new Integer[reached];
+        for (int i = 0; i < reached; i++) result[i] = workspace.queue[i];
         return result;
     }
 
 
     public DistanceDistribution getDistanceDistribution(){
-        // Do a BFS traversal and get the exact distance distribution of the graph. 
-        NodeIterator nodeIter = graph.nodeIterator();
-        DistanceDistribution distribution = new DistanceDistribution();
-
+        // Do a BFS traversal from every node and get the exact distance distribution of the graph.
         Progress progress = new Progress();
         ProgressReporter reporter = new ProgressReporter(progress, 5, true);
         reporter.start();
 
-        int numNodes = graph.numNodes();
-
-        while (nodeIter.hasNext()){
-            int node = nodeIter.nextInt();
-            updateDistanceDistribution(distribution, node);
-
-            double progressStatus = ((double) node / numNodes) * 100;
-            progress.updateProgress(progressStatus);
-
+        AtomicInteger nextSource = new AtomicInteger();
+        List<Callable<DistanceDistribution>> tasks = new ArrayList<>();
+        for (int i = 0; i < numberOfThreads; i++){
+            // graphs are not thread safe.
+            Workspace workspace = numberOfThreads == 1 ? getWorkspace()
+                    : new Workspace(graph.copy(), transposeGraph == null ? null : transposeGraph.copy());
+            tasks.add(() -> workspace.searchAll(nextSource, progress));
         }
 
-        reporter.finished();
+        DistanceDistribution distribution = new DistanceDistribution();
+        try {
+            if (numberOfThreads == 1){
+                distribution.merge(tasks.get(0).call());
+            } else {
+                ForkJoinPool pool = new ForkJoinPool(numberOfThreads);
+                try {
+                    for (Future<DistanceDistribution> result : pool.invokeAll(tasks)){
+                        distribution.merge(result.get());
+                    }
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("BFS-Traversal was interrupted", e);
+        } catch (ExecutionException e){
+            throw new IllegalStateException("BFS-Traversal failed", e.getCause());
+        } catch (Exception e){
+            throw new IllegalStateException("BFS-Traversal failed", e);
+        } finally {
+            reporter.finished();
+        }
         return distribution;
     }
 
     /**
-     * Updates distancedistribution for a node in the graph. With BFS traversal.
-     * @param distribution  The distribution to update.
-     * @param node The node to update.
+     * @return The workspace of searches on the calling thread, reused by every call as nothing has to be cleared.
      */
+    private Workspace getWorkspace()
+    {
+        if (workspace == null) workspace = new Workspace(graph, transposeGraph);
+        return workspace;
+    }
 
-    private void updateDistanceDistribution(DistanceDistribution distribution, int node){
-
-        boolean[] visited = new boolean[graph.numNodes()]; // keeps track of the nodes we have visited. 
-        for (int i = 0; i < visited.length; i++){
-            visited[i] = false;
+    // HELPER CLASS
+    /**
+     * The arrays of the searches of one thread, reused for every source.
+     */
+    private static class Workspace {
+        private final ImmutableGraph graph;
+        private final ImmutableGraph transpose;     // null when the searches are only top-down.
+        private final int[] queue;          // the nodes found by the current search, in order of distance.
+        private final int[] visited;        // visited by the current search when equal to search.
+        private final int[] distances;      // direction-optimizing: distance of the nodes visited by the current search.
+        private int search = 0;
+
+        private Workspace(ImmutableGraph graph, ImmutableGraph transpose){
+            this.graph = graph;
+            this.transpose = transpose;
+            this.queue = new int[graph.numNodes()];
+            this.visited = new int[graph.numNodes()];
+            this.distances = transpose == null ? null : new int[graph.numNodes()];
         }
-        visited[node] = true;
-
-        Queue<BFSNode> queue = new LinkedList<>(); //Add first node to queue.
-        BFSNode startNode = new BFSNode(node, 0);
-        queue.add(startNode);
-
-        // BFS Loop until no more nodes can be found.
-        while(!queue.isEmpty()){ 
-            BFSNode bfsNode = queue.poll();
-    
-            LazyIntIterator iter = graph.successors(bfsNode.node);
-            int n; 
-            while((n = iter.nextInt()) != -1){
-
-                if(!visited[n]){
-                    visited[n] = true;
-                    int distance = bfsNode.distance + 1;
-                    // Add new found node to queue.
-                    queue.add(new BFSNode(n, distance)); // Distance to current node + 1
-                    
-                    // update distribution
-                    distribution.incrementNumberOfPairs(distance);
-                }
-            }
 
+        /**
+         * Searches from sources until none are left.
+         * @param nextSource the next source to search from, shared by the threads.
+         * @param progress progress to report to.
+         * @return The pairs found from the searched sources.
+         */
+        private DistanceDistribution searchAll(AtomicInteger nextSource, Progress progress){
+            DistanceDistribution distribution = new DistanceDistribution();
+            int numNodes = graph.numNodes();
+            int first;
+            while ((first = nextSource.getAndAdd(SOURCES_PER_TASK)) < numNodes){
+                int last = Math.min(numNodes, first + SOURCES_PER_TASK);
+                for (int source = first; source < last; source++) search(source, distribution);
+                progress.updateProgress((double) last / numNodes * 100);
+            }
+            return distribution;
         }
-        //Utilities.printMemoryUsage();
 
-    }
+        /**
+         * Breadth-first search from a source, level by level.
+         * @param source The node to search from.
+         * @param distribution The distribution to add the pairs of the source to, may be null.
+         * @return The number of nodes reachable from the source, including itself. They are at the start of the queue.
+         */
+        private int search(int source, DistanceDistribution distribution){
+            if (search == Integer.MAX_VALUE){
+                // The marks would repeat, so they are cleared once every 2^31 searches.
+                Arrays.fill(visited, 0);
+                search = 0;
+            }
+            search++;
+            visited[source] = search;
+            queue[0] = source;
+            int end = 1;            // the queue holds the nodes [0, end).
+
+            // Direction-optimizing: arcs leaving the frontier and arcs leaving the nodes not visited yet.
+            boolean bottomUp = false;
+            long frontierArcs = 0;
+            long unexploredArcs = 0;
+            if (transpose != null){
+                distances[source] = 0;
+                frontierArcs = graph.outdegree(source);
+                unexploredArcs = graph.numArcs() - frontierArcs;
+            }
+
+            int head = 0;
+            for (int distance = 1; head < end; distance++){
+                // The nodes [head, levelEnd) are at distance - 1, their unvisited successors at distance.
+                int levelEnd = end;
+                if (transpose != null){
+                    if (!bottomUp && frontierArcs > unexploredArcs / TOP_DOWN_FACTOR) bottomUp = true;
+                    else if (bottomUp && levelEnd - head < graph.numNodes() / BOTTOM_UP_FACTOR) bottomUp = false;
+                }
 
-    // HELPER CLASS 
-    private class BFSNode {
-        public int node;
-        public int distance;
+                if (bottomUp){
+                    end = expandBottomUp(distance, end);
+                    head = levelEnd;
+                } else {
+                    for (; head < levelEnd; head++){
+                        LazyIntIterator successorIter = graph.successors(queue[head]);
+                        int successor;
+                        while ((successor = successorIter.nextInt()) != -1){
+                            if (visited[successor] != search){
+                                visited[successor] = search;
+                                queue[end++] = successor;
+                            }
+                        }
+                    }
+                }
+                if (distribution != null && end > levelEnd) distribution.increaseNumberOfPairs(distance, end - levelEnd);
+
+                if (transpose != null){
+                    // The new frontier, with its distance for the bottom-up steps.
+                    frontierArcs = 0;
+                    for (int i = levelEnd; i < end; i++){
+                        distances[queue[i]] = distance;
+                        frontierArcs += graph.outdegree(queue[i]);
+                    }
+                    unexploredArcs -= frontierArcs;
+                }
+            }
+            return end;
+        }
 
-        private BFSNode(int node, int distance){
-            this.node = node;
-            this.distance = distance;
+        /**
+         * Bottom-up step: every unvisited node with a predecessor at distance - 1 is at distance.
+         * @param distance The distance of the nodes to find.
+         * @param end End of the queue.
+         * @return The new end of the queue, after the found nodes.
+         */
+        private int expandBottomUp(int distance, int end){
+            int numNodes = graph.numNodes();
+            for (int node = 0; node < numNodes; node++){
+                if (visited[node] == search) continue;
+                // Lazily, a BVGraph then only decodes the predecessors up to the first one in the frontier.
+                LazyIntIterator predecessorIter = transpose.successors(node);
+                int predecessor;
+                while ((predecessor = predecessorIter.nextInt()) != -1){
+                    if (visited[predecessor] == search && distances[predecessor] == distance - 1){
+                        visited[node] = search;
+                        distances[node] = distance;     // not distance - 1 from an older search, it is not in the frontier.
+                        queue[end++] = node;
+                        break;
+                    }
+                }
+            }
+            return end;
         }
     }
 
@@ -0,0 +1,280 @@
+package utwente.jjw.meijer.hyperball;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import it.unimi.dsi.webgraph.ImmutableGraph;
+import it.unimi.dsi.webgraph.NodeIterator;
+import utwente.jjw.meijer.hll.CardinalitySketchArray;
+
+/**
+ * Durable checkpoints of a HyperBall run. After iteration t the counters, the distance distribution so far and t
+ * are written to checkpoint-t.bin in the checkpoint directory, so that a crashed run can be resumed.
+ *
+ * Checkpoints are written by a background thread while the next iteration runs. A checkpoint is written under a
+ * temporary name, forced to disk and then renamed, hence a checkpoint file is always complete. The rename is made
+ * durable by forcing the directory as well. Older checkpoints are removed once a newer one is in place.
+ *
+ * Every checkpoint carries a fingerprint of the graph, computed from its number of nodes and its outdegrees, so that a
+ * checkpoint of another graph with as many nodes is not resumed.
+ *
+ * File layout: magic, graph fingerprint, number of counters, t, length of the serialized state, the serialized description of the
+ * counters, hash seeds, DistanceDistribution of every run and GeometricCentralities (null when not computed) and finally the
+ * counters as written by CardinalitySketchArray.write().
+ */
+public class Checkpoints implements Closeable {
+
+    private static final long MAGIC = 0x4879706572426137L;     // "HyperBa7"
+    private static final int HEADER_SIZE = 2 * Long.BYTES + 3 * Integer.BYTES;
+    private static final String PREFIX = "checkpoint-";
+    private static final String EXTENSION = ".bin";
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+
+    private final File directory;
+    private final long graphFingerprint;
+    private final ExecutorService writer;
+    private Future<?> pendingWrite = null;
+
+    /**
+     * @param directory Directory containing the checkpoints. Created if it does not exist.
+     * @param graph The graph of the run, only checkpoints of this graph are restored.
+     */
+    public Checkpoints(File directory, ImmutableGraph graph)
+    {
+        this.directory = directory;
+        this.graphFingerprint = getFingerprint(graph);
+        if (!directory.exists()) directory.mkdirs();
+
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "HyperBall checkpoint writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts writing the checkpoint of iteration t in the background. Waits for the previous checkpoint first.
+     * The counters must not change until the write has finished, see awaitWrite().
+     * @param t The number of finished iterations.
+     * @param counters The counters after iteration t.
+     * @param seeds The hash seed of every run.
+     * @param dists The distance distribution of every run up to distance t.
+     * @param centralities The centralities up to distance t, null when not computed. Must not change either.
+     */
+    public void writeInBackground(int t, CardinalitySketchArray counters, int[] seeds, DistanceDistribution[] dists, GeometricCentralities centralities)
+    {
+        awaitWrite();
+        pendingWrite = writer.submit(() -> {
+            write(t, counters, seeds, dists, centralities);
+            return null;
+        });
+    }
+
+    /**
+     * Waits until the checkpoint being written is on disk. A failed checkpoint is reported, but does not stop the run.
+     */
+    public void awaitWrite()
+    {
+        if (pendingWrite == null) return;
+        try {
+            pendingWrite.get();
+        } catch (ExecutionException e){
+            System.err.println("An error has occurred while writing a checkpoint");
+            e.getCause().printStackTrace();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while writing a checkpoint", e);
+        } finally {
+            pendingWrite = null;
+        }
+    }
+
+    private void write(int t, CardinalitySketchArray counters, int[] seeds, DistanceDistribution[] dists, GeometricCentralities centralities) throws IOException
+    {
+        ByteArrayOutputStream distBytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectStream = new ObjectOutputStream(distBytes)){
+            objectStream.writeObject(counters.getDescription());
+            objectStream.writeObject(seeds);
+            objectStream.writeObject(dists);
+            objectStream.writeObject(centralities);
+        }
+
+        File temporary = new File(directory, PREFIX + t + TEMPORARY_EXTENSION);
+        try (FileChannel channel = FileChannel.open(temporary.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putLong(MAGIC)
+                .putLong(graphFingerprint)
+                .putInt(counters.getNumberOfCounters())
+                .putInt(t)
+                .putInt(distBytes.size())
+                .flip();
+            while (header.hasRemaining()) channel.write(header);
+
+            ByteBuffer distBuffer = ByteBuffer.wrap(distBytes.toByteArray());
+            while (distBuffer.hasRemaining()) channel.write(distBuffer);
+
+            counters.write(channel);
+            channel.force(true);
+        }
+
+        Files.move(temporary.toPath(), getFile(t).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        try (FileChannel directoryChannel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)){
+            directoryChannel.force(true);       // the rename itself is only durable once the directory is.
+        }
+        for (int older : listIterations()){
+            if (older < t) getFile(older).delete();
+        }
+    }
+
+    /**
+     * Restores the latest valid checkpoint. Checkpoints of other graphs, kinds of counters, precisions, register widths, hash functions or seeds are skipped, as are
+     * checkpoints without centralities when centralities are requested.
+     * @param counters Counters to overwrite with those of the checkpoint.
+     * @param seeds The hash seed of every run.
+     * @param dists Distributions to add the distributions of the checkpoint to, one per run.
+     * @param centralities Centralities to overwrite with those of the checkpoint, may be null.
+     * @return The iteration of the restored checkpoint, 0 if there is none. The arguments are untouched then.
+     * @throws IOException when reading the counters of a valid checkpoint fails.
+     */
+    public int restoreLatest(CardinalitySketchArray counters, int[] seeds, DistanceDistribution[] dists, GeometricCentralities centralities) throws IOException
+    {
+        List<Integer> iterations = listIterations();
+        Collections.sort(iterations, Collections.reverseOrder());
+
+        for (int t : iterations){
+            try (FileChannel channel = FileChannel.open(getFile(t).toPath(), StandardOpenOption.READ)){
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                while (header.hasRemaining() && channel.read(header) >= 0);
+                header.flip();
+                if (header.remaining() < HEADER_SIZE || header.getLong() != MAGIC
+                        || header.getLong() != graphFingerprint
+                        || header.getInt() != counters.getNumberOfCounters()
+                        || header.getInt() != t){
+                    System.err.printf("Skipping checkpoint %s, it does not belong to this run\n", getFile(t));
+                    continue;
+                }
+
+                int distLength = header.getInt();
+                if (channel.size() != HEADER_SIZE + distLength + counters.getSerializedSize()){
+                    System.err.printf("Skipping checkpoint %s, it has the wrong size\n", getFile(t));
+                    continue;
+                }
+
+                ByteBuffer distBuffer = ByteBuffer.allocate(distLength);
+                while (distBuffer.hasRemaining() && channel.read(distBuffer) >= 0);
+                String checkpointDescription;
+                int[] checkpointSeeds;
+                DistanceDistribution[] checkpointDists;
+                GeometricCentralities checkpointCentralities;
+                try (ObjectInputStream objectStream = new ObjectInputStream(new ByteArrayInputStream(distBuffer.array()))){
+                    checkpointDescription = (String) objectStream.readObject();
+                    checkpointSeeds = (int[]) objectStream.readObject();
+                    checkpointDists = (DistanceDistribution[]) objectStream.readObject();
+                    checkpointCentralities = (GeometricCentralities) objectStream.readObject();
+                } catch (ClassNotFoundException | IOException e){
+                    System.err.printf("Skipping checkpoint %s, its distance distribution is unreadable\n", getFile(t));
+                    continue;
+                }
+                if (!counters.getDescription().equals(checkpointDescription)
+                        || !Arrays.equals(seeds, checkpointSeeds) || checkpointDists.length != dists.length){
+                    System.err.printf("Skipping checkpoint %s, it uses other counters or other seeds\n", getFile(t));
+                    continue;
+                }
+                if (centralities != null && (checkpointCentralities == null
+                        || checkpointCentralities.getNumberOfNodes() != centralities.getNumberOfNodes())){
+                    System.err.printf("Skipping checkpoint %s, it does not contain centralities\n", getFile(t));
+                    continue;
+                }
+
+                // Only now the checkpoint is known to be valid, and counters are overwritten.
+                counters.read(channel);
+                for (int r = 0; r < dists.length; r++) dists[r].merge(checkpointDists[r]);
+                if (centralities != null) centralities.copyFrom(checkpointCentralities);
+                return t;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Removes all checkpoints, for example after the run has finished.
+     */
+    public void deleteAll()
+    {
+        awaitWrite();
+        for (int t : listIterations()){
+            getFile(t).delete();
+        }
+    }
+
+    /**
+     * Waits for the last checkpoint and stops the background writer.
+     */
+    @Override
+    public void close()
+    {
+        awaitWrite();
+        writer.shutdown();
+    }
+
+    /**
+     * Hashes the number of nodes and the outdegree of every node, in order. Reads the graph once.
+     * @return Fingerprint of the graph.
+     */
+    static long getFingerprint(ImmutableGraph graph)
+    {
+        int n = graph.numNodes();
+        long fingerprint = n;
+        NodeIterator nodeIter = graph.nodeIterator();
+        for (int i = 0; i < n; i++){
+            nodeIter.nextInt();
+            fingerprint = (fingerprint + nodeIter.outdegree()) * 0x9E3779B97F4A7C15L;
+            fingerprint ^= fingerprint >>> 29;
+        }
+        return fingerprint;
+    }
+
+    private File getFile(int t)
+    {
+        return new File(directory, PREFIX + t + EXTENSION);
+    }
+
+    /**
+     * @return Iterations of the checkpoints in the directory.
+     */
+    private List<Integer> listIterations()
+    {
+        List<Integer> iterations = new ArrayList<>();
+        String[] names = directory.list();
+        if (names == null) return iterations;
+
+        for (String name : names){
+            if (!name.startsWith(PREFIX) || !name.endsWith(EXTENSION)) continue;
+            try {
+                iterations.add(Integer.parseInt(name.substring(PREFIX.length(), name.length() - EXTENSION.length())));
+            } catch (NumberFormatException e){
+                // Not a checkpoint of ours.
+            }
+        }
+        return iterations;
+    }
+}
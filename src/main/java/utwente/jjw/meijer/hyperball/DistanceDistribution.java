@@ -93,6 +93,19 @@ public class DistanceDistribution implements Serializable {
         }
     }
 
+    /**
+     * Adds the number of pairs of every distance of another distribution to this distribution.
+     * Used to combine partial distributions, for example those computed by different threads.
+     * @param other the distribution to add.
+     */
+    public void merge(DistanceDistribution other){
+        Iterator<Integer> keyIter = other.iterator();
+        while (keyIter.hasNext()){
+            int distance = keyIter.next();
+            increaseNumberOfPairs(distance, other.getValue(distance));
+        }
+    }
+
     /**
      * Returns the number of pairs associated with a distance.
      * @param distance distance to get
@@ -0,0 +1,210 @@
+package utwente.jjw.meijer.hyperball;
+
+import java.io.Serializable;
+import java.security.InvalidParameterException;
+import java.util.Iterator;
+import java.util.TreeSet;
+import java.util.function.ToDoubleFunction;
+
+
+/**
+ * Distance distribution estimated by several independent HyperBall runs, each with its own hash seed.
+ * The estimate is the mean of the runs, its error is the jackknife standard error over the runs, as in
+ * Four degrees of separation (Backstrom et al.), section 4.
+ *
+ * A statistic of the distribution, such as the average distance, is computed on the mean distribution. Its standard
+ * error is obtained by leaving out every run in turn:
+ * SE = sqrt((k - 1) / k * sum_i (s_i - s_mean)^2), where s_i is the statistic of the mean of all runs but run i.
+ */
+public class DistanceDistributionEstimate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Quantile of the standard normal distribution used for 95% confidence intervals.
+     */
+    public static final double Z_95 = 1.959963984540054;
+
+    private final DistanceDistribution[] runs;
+
+    /**
+     * @param runs The distance distributions of the independent runs.
+     * @throws InvalidParameterException if there are no runs.
+     */
+    public DistanceDistributionEstimate(DistanceDistribution[] runs) throws InvalidParameterException
+    {
+        if (runs.length == 0) throw new InvalidParameterException("At least one run is needed");
+        this.runs = runs;
+    }
+
+    /**
+     * @return The number of independent runs.
+     */
+    public int getNumberOfRuns()
+    {
+        return runs.length;
+    }
+
+    /**
+     * @param run index of the run.
+     * @return The distance distribution of a single run.
+     */
+    public DistanceDistribution getRun(int run)
+    {
+        return runs[run];
+    }
+
+    /**
+     * @param distance the distance.
+     * @return The mean number of pairs at a distance over all runs.
+     */
+    public double getMeanNumberOfPairs(int distance)
+    {
+        double sum = 0;
+        for (DistanceDistribution run : runs) sum += run.getValue(distance);
+        return sum / runs.length;
+    }
+
+    /**
+     * Returns the jackknife standard error of the number of pairs at a distance. For a mean this equals the sample
+     * standard deviation divided by the square root of the number of runs.
+     * @param distance the distance.
+     * @return The standard error, NaN for a single run.
+     */
+    public double getStandardError(int distance)
+    {
+        if (runs.length < 2) return Double.NaN;
+        double mean = getMeanNumberOfPairs(distance);
+        double squares = 0;
+        for (DistanceDistribution run : runs){
+            squares += Math.pow(run.getValue(distance) - mean, 2);
+        }
+        return Math.sqrt(squares / (runs.length - 1) / runs.length);
+    }
+
+    /**
+     * @return Distribution with the mean number of pairs, rounded, for every distance found by any run.
+     */
+    public DistanceDistribution getMeanDistribution()
+    {
+        return getMeanDistribution(-1);
+    }
+
+    /**
+     * Computes the mean distribution of all runs but one.
+     * @param excludedRun index of the run to leave out, -1 to use all runs.
+     */
+    private DistanceDistribution getMeanDistribution(int excludedRun)
+    {
+        TreeSet<Integer> distances = new TreeSet<>();
+        for (DistanceDistribution run : runs){
+            Iterator<Integer> keyIter = run.iterator();
+            while (keyIter.hasNext()) distances.add(keyIter.next());
+        }
+
+        int included = excludedRun < 0 ? runs.length : runs.length - 1;
+        DistanceDistribution mean = new DistanceDistribution();
+        for (int distance : distances){
+            double sum = 0;
+            for (int i = 0; i < runs.length; i++){
+                if (i != excludedRun) sum += runs[i].getValue(distance);
+            }
+            mean.setNumberOfPairs(distance, Math.round(sum / included));
+        }
+        return mean;
+    }
+
+    /**
+     * Estimates a statistic of the distance distribution with its jackknife standard error.
+     * @param statistic The statistic, for example DistanceDistribution::getMean.
+     * @return The statistic of the mean distribution and its standard error.
+     */
+    public Estimate jackknife(ToDoubleFunction<DistanceDistribution> statistic)
+    {
+        double value = statistic.applyAsDouble(getMeanDistribution());
+        if (runs.length < 2) return new Estimate(value, Double.NaN);
+
+        double[] leftOut = new double[runs.length];
+        double mean = 0;
+        for (int i = 0; i < runs.length; i++){
+            leftOut[i] = statistic.applyAsDouble(getMeanDistribution(i));
+            mean += leftOut[i] / runs.length;
+        }
+        double squares = 0;
+        for (double s : leftOut) squares += Math.pow(s - mean, 2);
+        return new Estimate(value, Math.sqrt((runs.length - 1.0) / runs.length * squares));
+    }
+
+    /**
+     * @return The average distance with its standard error.
+     */
+    public Estimate getAverageDistance()
+    {
+        return jackknife(DistanceDistribution::getMean);
+    }
+
+    /**
+     * @return The shortest-paths index of dispersion with its standard error.
+     */
+    public Estimate getSpid()
+    {
+        return jackknife(DistanceDistribution::getSpid);
+    }
+
+    /**
+     * @return The number of reachable pairs with its standard error.
+     */
+    public Estimate getReachablePairs()
+    {
+        return jackknife(dist -> dist.getTotal());
+    }
+
+    /**
+     * A value estimated from the runs together with its standard error.
+     */
+    public static class Estimate implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final double value;
+        private final double standardError;
+
+        public Estimate(double value, double standardError)
+        {
+            this.value = value;
+            this.standardError = standardError;
+        }
+
+        public double getValue()
+        {
+            return value;
+        }
+
+        public double getStandardError()
+        {
+            return standardError;
+        }
+
+        /**
+         * @return Lower bound of the 95% confidence interval, using the normal approximation.
+         */
+        public double getLowerBound()
+        {
+            return value - Z_95 * standardError;
+        }
+
+        /**
+         * @return Upper bound of the 95% confidence interval, using the normal approximation.
+         */
+        public double getUpperBound()
+        {
+            return value + Z_95 * standardError;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%f ± %f (95%%: [%f, %f])", value, standardError, getLowerBound(), getUpperBound());
+        }
+    }
+}
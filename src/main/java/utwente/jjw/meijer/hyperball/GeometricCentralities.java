@@ -0,0 +1,193 @@
+package utwente.jjw.meijer.hyperball;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+
+/**
+ * Geometric centralities of every node, accumulated by HyperBall from the increase of the ball sizes.
+ * When the ball of a node grows by k nodes in iteration t, there are k nodes at distance t.
+ *
+ * HyperBall counts the nodes reachable from a node. The usual centralities are defined on the distances towards a
+ * node, so compute them by running HyperBall on the transposed graph.
+ */
+public class GeometricCentralities implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final double[] sumOfDistances;
+    private final double[] sumOfInverseDistances;
+    private final double[] reachable;
+
+    /**
+     * @param numNodes number of nodes of the graph.
+     */
+    public GeometricCentralities(int numNodes)
+    {
+        this.sumOfDistances = new double[numNodes];
+        this.sumOfInverseDistances = new double[numNodes];
+        this.reachable = new double[numNodes];
+    }
+
+    /**
+     * Creates a copy of the centralities, used to snapshot them while HyperBall continues.
+     * @param toCopy the centralities to copy.
+     */
+    public GeometricCentralities(GeometricCentralities toCopy)
+    {
+        this.sumOfDistances = toCopy.sumOfDistances.clone();
+        this.sumOfInverseDistances = toCopy.sumOfInverseDistances.clone();
+        this.reachable = toCopy.reachable.clone();
+    }
+
+    /**
+     * Maps the centralities of a relabeled graph back to the nodes of the original graph.
+     * @param relabeled the centralities of the relabeled graph.
+     * @param permutation the permutation the graph was relabeled with, see NodeOrdering.
+     */
+    public GeometricCentralities(GeometricCentralities relabeled, int[] permutation)
+    {
+        this.sumOfDistances = NodeOrdering.toOriginalNodes(relabeled.sumOfDistances, permutation);
+        this.sumOfInverseDistances = NodeOrdering.toOriginalNodes(relabeled.sumOfInverseDistances, permutation);
+        this.reachable = NodeOrdering.toOriginalNodes(relabeled.reachable, permutation);
+    }
+
+    /**
+     * Overwrites these centralities with those of another object of the same number of nodes.
+     * @param other the centralities to copy.
+     */
+    void copyFrom(GeometricCentralities other)
+    {
+        System.arraycopy(other.sumOfDistances, 0, sumOfDistances, 0, sumOfDistances.length);
+        System.arraycopy(other.sumOfInverseDistances, 0, sumOfInverseDistances, 0, sumOfInverseDistances.length);
+        System.arraycopy(other.reachable, 0, reachable, 0, reachable.length);
+    }
+
+    /**
+     * Records the nodes found at a distance from a node.
+     * @param node the node.
+     * @param distance the distance, at least 1.
+     * @param increase the number of nodes at that distance.
+     */
+    public void addNodesAtDistance(int node, int distance, double increase)
+    {
+        sumOfDistances[node] += distance * increase;
+        sumOfInverseDistances[node] += increase / distance;
+    }
+
+    /**
+     * @param node the node.
+     * @param size the number of nodes reachable from the node, including the node itself.
+     */
+    public void setReachable(int node, double size)
+    {
+        reachable[node] = size;
+    }
+
+    /**
+     * @return number of nodes.
+     */
+    public int getNumberOfNodes()
+    {
+        return reachable.length;
+    }
+
+    /**
+     * @return for every node the number of reachable nodes, including the node itself.
+     */
+    public double[] getReachable()
+    {
+        return reachable;
+    }
+
+    /**
+     * @return for every node the sum of the distances to the reachable nodes.
+     */
+    public double[] getSumOfDistances()
+    {
+        return sumOfDistances;
+    }
+
+    /**
+     * Harmonic centrality: the sum of the reciprocals of the distances.
+     * @return the harmonic centrality of every node.
+     */
+    public double[] getHarmonic()
+    {
+        return sumOfInverseDistances;
+    }
+
+    /**
+     * Closeness centrality: the reciprocal of the sum of distances, 0 for nodes that reach no other node.
+     * @return the closeness centrality of every node.
+     */
+    public double[] getCloseness()
+    {
+        double[] closeness = new double[reachable.length];
+        for (int node = 0; node < closeness.length; node++){
+            closeness[node] = sumOfDistances[node] == 0 ? 0 : 1 / sumOfDistances[node];
+        }
+        return closeness;
+    }
+
+    /**
+     * Lin's centrality: the squared number of reachable nodes divided by the sum of distances.
+     * Nodes that reach no other node have Lin's centrality 1 by definition.
+     * @return Lin's centrality of every node.
+     */
+    public double[] getLin()
+    {
+        double[] lin = new double[reachable.length];
+        for (int node = 0; node < lin.length; node++){
+            lin[node] = sumOfDistances[node] == 0 ? 1 : reachable[node] * reachable[node] / sumOfDistances[node];
+        }
+        return lin;
+    }
+
+    /**
+     * Nieminen's centrality: the squared number of reachable nodes minus the sum of distances.
+     * @return Nieminen's centrality of every node.
+     */
+    public double[] getNieminen()
+    {
+        double[] nieminen = new double[reachable.length];
+        for (int node = 0; node < nieminen.length; node++){
+            nieminen[node] = reachable[node] * reachable[node] - sumOfDistances[node];
+        }
+        return nieminen;
+    }
+
+    /**
+     * Saves the centralities to the disk
+     * @param file  File to save to
+     * @throws IOException
+     */
+    public static void saveToDisk(File file, GeometricCentralities centralities) throws IOException
+    {
+        try (ObjectOutputStream objectStream = new ObjectOutputStream(new FileOutputStream(file))){
+            objectStream.writeObject(centralities);
+        }
+    }
+
+    /**
+     * Deserializes a file containing a GeometricCentralities object
+     * @param file File that contains GeometricCentralities object.
+     * @return GeometricCentralities contained within the file.
+     * @throws IOException
+     */
+    public static GeometricCentralities loadFromDisk(File file) throws IOException
+    {
+        try (ObjectInputStream objectStream = new ObjectInputStream(new FileInputStream(file))){
+            return (GeometricCentralities) objectStream.readObject();
+        } catch (ClassNotFoundException e){
+            e.printStackTrace();
+            System.err.println("File must contain GeometricCentralities Object");
+            return null;
+        }
+    }
+}
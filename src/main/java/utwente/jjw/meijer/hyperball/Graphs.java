@@ -1,14 +1,24 @@
 package utwente.jjw.meijer.hyperball;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
+import it.unimi.dsi.fastutil.io.BinIO;
 import it.unimi.dsi.webgraph.ArrayListMutableGraph;
 import it.unimi.dsi.webgraph.BVGraph;
 import it.unimi.dsi.webgraph.ImmutableGraph;
+import it.unimi.dsi.webgraph.Transform;
 import it.unimi.dsi.webgraph.examples.ErdosRenyiGraph;
 
 public class Graphs {
 
+    public static final String TRANSPOSE_SUFFIX = "-t";
+    public static final String PERMUTATION_EXTENSION = ".perm";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final int TRANSPOSE_BATCH_SIZE = 1000000;   // number of arcs sorted in memory at once while transposing or relabeling.
+
     /**
      * Returns Erdos-Renyi graph. A well known model for creating graphs.
      * 
@@ -23,6 +33,21 @@ public class Graphs {
         return g;
     }
 
+    /**
+     * Returns a reproducible Erdos-Renyi graph.
+     * 
+     * @param n number of nodes
+     * @param p probability of edge forming
+     * @param seed seed of the random generator
+     * @return Erdos-Renyi graph as ImmutableGraph
+     */
+    public static ImmutableGraph getErdosRenyiGraph(int n, double p, long seed) {
+        ErdosRenyiGraph graph = new ErdosRenyiGraph(n, p, seed, false);
+        ArrayListMutableGraph mutGraph = new ArrayListMutableGraph(graph);
+        ImmutableGraph g = mutGraph.immutableView();
+        return g;
+    }
+
     /**
      * Returns a complete graph. Every node is connected to all other nodes.
      * 
@@ -71,6 +96,118 @@ public class Graphs {
         return graph;
     }
 
+    /**
+     * Loads a BVGraph without its offsets and without reading the graph into memory. The graph can only be
+     * scanned sequentially, which is all HyperBall needs.
+     * 
+     * @param filepath Basename of the graph.
+     * @return Graph without random access.
+     */
+    public static BVGraph loadOfflineBVGraphFromFile(String filepath) throws IOException {
+        return BVGraph.loadOffline(filepath);
+    }
+
+    /**
+     * Loads a BVGraph by memory-mapping the graph file. Only the offsets are kept in memory.
+     * 
+     * @param filepath Basename of the graph.
+     * @return Graph with random access.
+     */
+    public static BVGraph loadMappedBVGraphFromFile(String filepath) throws IOException {
+        return BVGraph.loadMapped(filepath);
+    }
+
+    /**
+     * Returns the transposed graph of an in-memory graph. All arcs are reversed, so the successors
+     * of a node in the transposed graph are its predecessors in the original graph.
+     * 
+     * @param graph Graph to transpose.
+     * @return Transposed graph with random access.
+     */
+    public static ImmutableGraph getTransposeGraph(ImmutableGraph graph) {
+        ArrayListMutableGraph transpose = new ArrayListMutableGraph(Transform.transpose(graph));
+        return transpose.immutableView();
+    }
+
+    /**
+     * Loads the transposed graph of a BVGraph. The transposed graph is stored next to the original
+     * graph as basename-t the first time, and loaded from there afterwards.
+     * 
+     * @param graph Graph to transpose.
+     * @return Transposed graph with random access.
+     */
+    public static BVGraph loadTransposeGraph(BVGraph graph) throws IOException {
+        String transposeBasename = graph.basename().toString() + TRANSPOSE_SUFFIX;
+        if (!new File(transposeBasename + BVGraph.GRAPH_EXTENSION).exists()) {
+            store(Transform.transposeOffline(graph, TRANSPOSE_BATCH_SIZE), transposeBasename, null);
+        }
+        return loadBVGraphFromFile(transposeBasename);
+    }
+
+    /**
+     * Stores a graph as a BVGraph under a temporary basename and then renames its files, the .graph file last.
+     * An existing basename.graph is therefore always complete, together with its permutation, also when a store was
+     * interrupted, and can be reused as a cache.
+     * 
+     * @param graph Graph to store.
+     * @param basename Basename of the stored graph.
+     * @param permutation Permutation to store as basename.perm, null for none.
+     */
+    private static void store(ImmutableGraph graph, String basename, int[] permutation) throws IOException {
+        String temporaryBasename = basename + TEMPORARY_SUFFIX;
+        BVGraph.store(graph, temporaryBasename);
+        if (permutation != null) {
+            BinIO.storeInts(permutation, temporaryBasename + PERMUTATION_EXTENSION);
+            Files.move(new File(temporaryBasename + PERMUTATION_EXTENSION).toPath(), new File(basename + PERMUTATION_EXTENSION).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        for (String extension : new String[] {BVGraph.PROPERTIES_EXTENSION, BVGraph.OFFSETS_EXTENSION, BVGraph.GRAPH_EXTENSION}) {
+            Files.move(new File(temporaryBasename + extension).toPath(), new File(basename + extension).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Relabels the nodes of an in-memory graph, node v becomes node permutation[v].
+     * 
+     * @param graph Graph to relabel.
+     * @param permutation The new ID of every node, for example from NodeOrdering.getPermutation().
+     * @return Relabeled graph with random access.
+     */
+    public static ImmutableGraph getRelabeledGraph(ImmutableGraph graph, int[] permutation) {
+        ArrayListMutableGraph relabeled = new ArrayListMutableGraph(Transform.map(graph, permutation));
+        return relabeled.immutableView();
+    }
+
+    /**
+     * Loads a BVGraph relabeled in an order that gives neighbours nearby IDs, which makes HyperBall faster and the
+     * graph smaller. The relabeled graph and its permutation are stored next to the original graph, as
+     * basename-bfs and basename-bfs.perm for the BFS order, the first time, and loaded from there afterwards.
+     * Per-node results of the relabeled graph are mapped back with the permutation, see loadPermutation().
+     * 
+     * @param graph Graph to relabel.
+     * @param ordering The order of the nodes.
+     * @return Relabeled graph with random access.
+     */
+    public static BVGraph loadRelabeledGraph(BVGraph graph, NodeOrdering ordering) throws IOException {
+        String relabeledBasename = graph.basename().toString() + ordering.getSuffix();
+        if (!new File(relabeledBasename + BVGraph.GRAPH_EXTENSION).exists()) {
+            int[] permutation = ordering.getPermutation(graph);
+            store(Transform.mapOffline(graph, permutation, TRANSPOSE_BATCH_SIZE), relabeledBasename, permutation);
+        }
+        return loadBVGraphFromFile(relabeledBasename);
+    }
+
+    /**
+     * Loads the permutation a graph was relabeled with by loadRelabeledGraph().
+     * 
+     * @param relabeled The relabeled graph.
+     * @return The permutation, node v of the original graph is node permutation[v] of the relabeled graph.
+     */
+    public static int[] loadPermutation(BVGraph relabeled) throws IOException {
+        return BinIO.loadInts(relabeled.basename().toString() + PERMUTATION_EXTENSION);
+    }
+
     public static BVGraph getWordAssociation2011Graph() {
         BVGraph graph;
         try {
@@ -1,112 +1,1170 @@
 package utwente.jjw.meijer.hyperball;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import it.unimi.dsi.webgraph.ImmutableGraph;
 import it.unimi.dsi.webgraph.LazyIntIterator;
 import it.unimi.dsi.webgraph.NodeIterator;
 
-import utwente.jjw.meijer.hll.HLLCounter;
+import utwente.jjw.meijer.hll.BitsetSketchArray;
+import utwente.jjw.meijer.hll.CardinalitySketchArray;
+import utwente.jjw.meijer.hll.HLLCounterArray;
+import utwente.jjw.meijer.hll.HashFunction;
+import utwente.jjw.meijer.hll.Murmur3Hash32;
+import utwente.jjw.meijer.hll.SketchType;
+import utwente.jjw.meijer.hll.TailCutHLLArray;
 import utwente.jjw.meijer.utilities.*;
 
 /**
  * The hyperball algorithm. Used to compute the distance distribution of big graphs. Using probabilistic counters.
+ *
+ * Each iteration can be spread over multiple threads. The node range is then split into chunks containing roughly
+ * the same number of arcs, which the worker threads take one by one until all chunks are done.
+ * Every node is written by exactly one worker, so the result is exactly that of a sequential run.
+ *
+ * The successor lists are streamed with node iterators, in node order, so the graph does not need random access and
+ * can be loaded with BVGraph.loadOffline() or loadMapped(). For a graph without random access the start of every
+ * chunk is located once, with a single scan of the graph, and iterators are copied from there every iteration.
+ *
+ * When the transposed graph is given, iterations are systolic: a counter can only change when the counter of one of
+ * its successors changed in the previous iteration, so only the predecessors of changed nodes are visited.
+ *
+ * The counters are HyperLogLog counters by default. Any CardinalitySketchArray can be used instead, see
+ * setSketchType(), for example exact bitsets to compute the exact distance distribution of a small graph.
+ *
+ * Counters are kept on the heap, or in memory-mapped files when a counter directory is given. The new counters are
+ * written in node order, so the operating system can write the mapped pages back to disk sequentially.
+ *
+ * When a checkpoint directory is given, a checkpoint is written in the background after every iteration and a run
+ * resumes from the latest checkpoint in the directory. See Checkpoints.
+ *
+ * Several independent runs can share one pass over the graph. Every run hashes with its own seed, and the counters of
+ * the runs are interleaved: counter node * runs + r belongs to run r, so a single decoded successor list feeds all
+ * runs. The result is their mean, with jackknife error bars, see DistanceDistributionEstimate.
+ *
+ * On graphs whose counters are much larger than the cache, almost every union reads a counter from a random place in
+ * memory. With cache blocking, see setCacheSize(), a chunk is processed in tiles of nodes whose new counters fit in
+ * the cache. The arcs of a tile are sorted by the block of their successor, so the counters of the successors are
+ * read block by block, in ascending order, instead of at random. Unions commute, so the result does not change.
+ *
+ * Decoding the compressed successor lists of a BVGraph can take as long as the unions. With decoder threads, see
+ * setDecoderThreads(), the successor lists are decoded by separate threads and passed in batches to the threads doing
+ * the unions, so both run at the same time. The busy fraction of both stages is reported for every iteration.
+ *
+ * With HyperLogLog counters, the distance distributions of lower precisions are estimated in the same pass by
+ * folding the counters, see setMinimumNumberOfBits() and HLLCounterArray.getFoldedSizes().
+ *
+ * The run stops once no counter changes, or earlier as decided by the StopPolicy.
+ *
+ * Optionally the geometric centralities of every node are computed in the same run, see GeometricCentralities.
  */
 
 public class HyperBall {
 
+    private static final int CHUNKS_PER_THREAD = 64;    // More chunks than threads, so fast threads take over the work of slow ones.
+    private static final int BATCH_NODES = 1024;        // maximum number of nodes in a batch of decoded successor lists.
+    private static final int BATCH_ARCS = 1 << 16;      // successors that fit in a batch, a node with more grows its batch.
+    private static final int BATCHES_PER_DECODER = 4;
+
     private final ImmutableGraph GRAPH;
     private final int NUMBER_OF_BITS;
-    private final int MAX_ITERATIONS = 30;
+    private final int NUMBER_OF_THREADS;
+    private ImmutableGraph transposeGraph = null;           // only available in systolic mode.
+    private File counterDirectory = null;                   // counters are kept on the heap when null.
+    private File checkpointDirectory = null;                // no checkpoints are written when null.
+    private boolean computeCentralities = false;
+    private StopPolicy stopPolicy = new StopPolicy();       // by default runs until the counters converge.
+    private int numberOfRuns = 1;
+    private int seed = 0;                                   // run r hashes with seed + r.
+    private HashFunction hashFunction = new Murmur3Hash32();
+    private int registerWidth = 0;                          // chosen from the number of nodes when 0.
+    private SketchType sketchType = SketchType.HYPERLOGLOG;
+    private int foldedLevels = 0;                           // lower precisions estimated by folding.
+    private long cacheSize = 0;                             // in bytes, iterations are not blocked when 0.
+    private int decoderThreads = 0;                         // the union threads decode the successors when 0.
+    private DistanceDistributionEstimate estimate = null;   // result of the last run.
+    private DistanceDistributionEstimate[] foldedEstimates = new DistanceDistributionEstimate[0];   // index i has i bits less.
+
+    // State of the current run. Shared with the workers.
+    private CardinalitySketchArray counters;
+    private CardinalitySketchArray newCounters;
+    private boolean[] marked;                               // systolic: nodes to visit in this iteration.
+    private boolean[] nextMarked;                           // systolic: nodes to visit in the next iteration.
+    private boolean[] modified;                             // systolic: nodes whose counter changed in this iteration.
+    private GeometricCentralities centralities = null;      // null when not computed.
+    private final ArrayList<Long> touchedPerIteration = new ArrayList<>();
+    private final ArrayList<Double> decoderUtilisation = new ArrayList<>();
+    private final ArrayList<Double> unionUtilisation = new ArrayList<>();
+    private int[] chunks;                                   // chunk i contains the nodes [chunks[i], chunks[i+1])
+    private NodeIterator[] chunkStarts;                     // no random access: iterators positioned before chunk i.
+    private final AtomicInteger nextChunk = new AtomicInteger();
+    private AdjacencyBatchQueue fullBatches;                // pipelined: decoded batches waiting for the unions.
+    private AdjacencyBatchQueue freeBatches;                // pipelined: empty batches waiting for a decoder.
+    private int t;                                          // distance
+    private int tileShift;                                  // blocked: tiles and blocks contain 2^tileShift nodes, -1 when not blocked.
+
      /**
      * Creates a wrapper for the HyperBall algorithm.
      * @param graph The graph to analyse
      * @param numberOfBits The number of registers. More results in better accuracy.
-     * @throws InvalidParameterException    
+     * @throws InvalidParameterException
      */
     public HyperBall(ImmutableGraph graph, int numberOfBits) throws InvalidParameterException{
-        if (!graph.randomAccess()){
-            throw new InvalidParameterException("Graph must allow for random access");
+        this(graph, numberOfBits, 1);
+    }
+
+    /**
+     * Creates a wrapper for the HyperBall algorithm that runs every iteration on multiple threads.
+     * @param graph The graph to analyse
+     * @param numberOfBits The number of registers. More results in better accuracy.
+     * @param numberOfThreads The number of threads to use.
+     * @throws InvalidParameterException
+     */
+    public HyperBall(ImmutableGraph graph, int numberOfBits, int numberOfThreads) throws InvalidParameterException{
+        if (!graph.randomAccess() && numberOfThreads > 1 && !graph.hasCopiableIterators()){
+            throw new InvalidParameterException("Graph must allow for random access or copiable iterators to use multiple threads");
         }else if (numberOfBits > 32){
             throw new InvalidParameterException("Number of Bits is too large");
+        }else if (numberOfThreads < 1){
+            throw new InvalidParameterException("Number of threads must be at least 1");
         }
         this.NUMBER_OF_BITS = numberOfBits;
-        this.GRAPH = graph;  
+        this.NUMBER_OF_THREADS = numberOfThreads;
+        this.GRAPH = graph;
+    }
+
+
+    /**
+     * Enables systolic iterations, which only visit the predecessors of nodes whose counter changed.
+     * @param transpose The transposed graph, see Graphs.getTransposeGraph().
+     * @throws InvalidParameterException
+     */
+    public void setTransposeGraph(ImmutableGraph transpose) throws InvalidParameterException{
+        if (!transpose.randomAccess()){
+            throw new InvalidParameterException("Transposed graph must allow for random access");
+        }else if (transpose.numNodes() != GRAPH.numNodes()){
+            throw new InvalidParameterException("Transposed graph must have the same number of nodes");
+        }
+        this.transposeGraph = transpose;
+    }
+
+    /**
+     * Keeps the counters in memory-mapped files in a directory instead of on the heap.
+     * This allows graphs whose counters do not fit in memory. The files are removed after the run.
+     * @param directory Directory for the counter files. Should be on a fast disk.
+     */
+    public void setCounterDirectory(File directory){
+        this.counterDirectory = directory;
+    }
+
+    /**
+     * Writes a checkpoint to a directory after every iteration. If the directory already contains a checkpoint of
+     * this graph, the run resumes from the latest one. The checkpoints are removed when the run finishes.
+     * @param directory Directory for the checkpoints.
+     */
+    public void setCheckpointDirectory(File directory){
+        this.checkpointDirectory = directory;
+    }
+
+    /**
+     * Runs several independent estimates at once, each with its own hash seed, to obtain error bars.
+     * Memory for the counters grows linearly with the number of runs.
+     * @param numberOfRuns The number of runs, at least 1.
+     * @throws InvalidParameterException if the counters of all runs do not fit in a single array.
+     */
+    public void setNumberOfRuns(int numberOfRuns) throws InvalidParameterException{
+        if (numberOfRuns < 1){
+            throw new InvalidParameterException("Number of runs must be at least 1");
+        }else if ((long) numberOfRuns * GRAPH.numNodes() > Integer.MAX_VALUE){
+            throw new InvalidParameterException("Too many runs for the number of nodes");
+        }
+        this.numberOfRuns = numberOfRuns;
+    }
+
+    /**
+     * Sets the seed of the hash function. Run r uses seed + r. Seed 0 gives the unseeded hash.
+     * @param seed The seed of the first run.
+     */
+    public void setSeed(int seed){
+        this.seed = seed;
+    }
+
+    /**
+     * Sets the hash function of the counters. A 64-bit hash function avoids the large range correction of 32-bit
+     * hashes, which limits the estimates on graphs with billions of nodes.
+     * @param hashFunction The hash function, by default 32-bit MurmurHash3.
+     */
+    public void setHashFunction(HashFunction hashFunction){
+        this.hashFunction = hashFunction;
+    }
+
+    /**
+     * Sets the number of bits of a register. By default the smallest width that does not saturate for the number of
+     * nodes is used, see HLLCounterArray.getRegisterWidth(). A smaller width saves memory.
+     * @param registerWidth Number of bits from 4 to 8, or 0 to choose it automatically.
+     * @throws InvalidParameterException
+     */
+    public void setRegisterWidth(int registerWidth) throws InvalidParameterException{
+        if (registerWidth != 0 && (registerWidth < HLLCounterArray.MIN_REGISTER_WIDTH || registerWidth > HLLCounterArray.MAX_REGISTER_WIDTH)){
+            throw new InvalidParameterException("Register width must be between " + HLLCounterArray.MIN_REGISTER_WIDTH + " and " + HLLCounterArray.MAX_REGISTER_WIDTH);
+        }
+        this.registerWidth = registerWidth;
+    }
+
+    /**
+     * Sets the kind of counters. HyperLogLog counters use the precision, hash function and register width set for
+     * this HyperBall, tail cut counters only the precision and hash function. Bitsets count exactly, so all runs give
+     * the same result.
+     * @param sketchType The kind of counters, by default SketchType.HYPERLOGLOG.
+     */
+    public void setSketchType(SketchType sketchType){
+        this.sketchType = sketchType;
+    }
+
+    /**
+     * Also estimates the distance distribution for every lower number of bits down to a minimum, in the same pass
+     * over the graph. After every iteration the changed counters are folded to the lower precisions, which gives
+     * the same result as separate runs with those numbers of bits. Costs O(m) per changed counter and precision.
+     * Only for HyperLogLog counters.
+     * @param minimumNumberOfBits The lowest number of bits, from 4 up to the number of bits of this HyperBall.
+     * @throws InvalidParameterException
+     */
+    public void setMinimumNumberOfBits(int minimumNumberOfBits) throws InvalidParameterException{
+        if (minimumNumberOfBits < 4 || minimumNumberOfBits > NUMBER_OF_BITS){
+            throw new InvalidParameterException("Minimum number of bits must be between 4 and " + NUMBER_OF_BITS);
+        }
+        this.foldedLevels = NUMBER_OF_BITS - minimumNumberOfBits;
+    }
+
+    /**
+     * Returns the distributions of the independent runs of the last call to getDistanceDistribution().
+     * @return The estimate with error bars, null before the first call.
+     */
+    public DistanceDistributionEstimate getDistanceDistributionEstimate(){
+        return estimate;
+    }
+
+    /**
+     * Returns the distributions of the last call to getDistanceDistribution() at a lower precision, see setMinimumNumberOfBits().
+     * @param numberOfBits The number of bits, between the minimum and the number of bits of this HyperBall.
+     * @return The estimate with error bars, null when that precision was not estimated.
+     */
+    public DistanceDistributionEstimate getDistanceDistributionEstimate(int numberOfBits){
+        int level = NUMBER_OF_BITS - numberOfBits;
+        if (level < 0 || level >= foldedEstimates.length) return null;
+        return foldedEstimates[level];
+    }
+
+    /**
+     * Sets the policy that decides when to stop before the counters have converged.
+     * @param stopPolicy The stop policy.
+     */
+    public void setStopPolicy(StopPolicy stopPolicy){
+        this.stopPolicy = stopPolicy;
+    }
+
+    /**
+     * Processes every chunk in tiles of nodes, so that the new counters of a tile and the counters of a block of
+     * successors fit together in a cache of this size. The successors of a tile are visited block by block.
+     * Helps when the counters are much larger than the cache. Use the cache size available to a single thread.
+     * @param cacheSize The cache size in bytes, for example the size of the L2 cache. 0 disables blocking.
+     * @throws InvalidParameterException
+     */
+    public void setCacheSize(long cacheSize) throws InvalidParameterException{
+        if (cacheSize < 0) throw new InvalidParameterException("Cache size can not be negative");
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Decodes the successor lists on separate threads, which pass them in batches to the threads doing the unions.
+     * Helps when decoding a compressed graph takes a large part of an iteration and there are cores to spare.
+     * Can not be combined with cache blocking, see setCacheSize().
+     * @param decoderThreads The number of decoder threads. 0 lets the union threads decode, as they do by default.
+     * @throws InvalidParameterException
+     */
+    public void setDecoderThreads(int decoderThreads) throws InvalidParameterException{
+        if (decoderThreads < 0){
+            throw new InvalidParameterException("Number of decoder threads can not be negative");
+        }else if (!GRAPH.randomAccess() && decoderThreads > 1 && !GRAPH.hasCopiableIterators()){
+            throw new InvalidParameterException("Graph must allow for random access or copiable iterators to use multiple decoder threads");
+        }
+        this.decoderThreads = decoderThreads;
+    }
+
+    /**
+     * Computes the harmonic, closeness, Lin and Nieminen centralities of every node during the run.
+     * This costs three doubles per node. Use the transposed graph as graph to get the centralities of incoming distances.
+     * @param computeCentralities Whether to compute the centralities.
+     */
+    public void setComputeCentralities(boolean computeCentralities){
+        this.computeCentralities = computeCentralities;
+    }
+
+    /**
+     * Returns the centralities computed by the last run, see setComputeCentralities().
+     * @return centralities of every node, null if they were not computed.
+     */
+    public GeometricCentralities getCentralities(){
+        return centralities;
     }
 
+    /**
+     * Returns how many nodes were visited in every iteration of the last run.
+     * Without the transposed graph this is always the number of nodes.
+     * @return number of visited nodes, index t is iteration t + 1.
+     */
+    public List<Long> getNodesTouched(){
+        return touchedPerIteration;
+    }
+
+    /**
+     * Returns the fraction of the time the decoder threads were busy in every iteration of the last run, the rest
+     * they waited for empty batches. See setDecoderThreads().
+     * @return busy fraction between 0 and 1, index t is iteration t + 1. Empty without decoder threads.
+     */
+    public List<Double> getDecoderUtilisation(){
+        return decoderUtilisation;
+    }
+
+    /**
+     * Returns the fraction of the time the union threads were busy in every iteration of the last run, the rest they
+     * waited for decoded batches. See setDecoderThreads().
+     * @return busy fraction between 0 and 1, index t is iteration t + 1. Empty without decoder threads.
+     */
+    public List<Double> getUnionUtilisation(){
+        return unionUtilisation;
+    }
 
     /**
      * Get the approximate distance distribution calculated by the HyperBall algorithm.
+     * With several runs this is their mean, see getDistanceDistributionEstimate() for the error bars.
      * @return Distance Distribution.
      */
     public DistanceDistribution getDistanceDistribution() {
 
-        DistanceDistribution dist = new DistanceDistribution();
-
-        // Get initialized counters
-        HLLCounter[] counters = initializeCounters();
-
-        int t = 0; // distance
-        boolean countersChanged = true;
-
-        while (countersChanged){
-            countersChanged = false;    // should change to true if the counters indeed have changed
-            NodeIterator nodeIter = GRAPH.nodeIterator();
-            HLLCounter[] newCounters = new HLLCounter[GRAPH.numNodes()];
-            long start = System.currentTimeMillis();
-            // iterate over all graph nodes.
-            while (nodeIter.hasNext()){
-                int node = nodeIter.nextInt();
-                // create a counter copy.
-                newCounters[node] = new HLLCounter(counters[node]);
-                
-                LazyIntIterator neighborIter = GRAPH.successors(node);
-
-                // iterate over all neighbors.
-                int neighbor;
-                while ((neighbor = neighborIter.nextInt()) != -1){
-                    boolean changed = newCounters[node].union(counters[neighbor]); 
-                    countersChanged = countersChanged | changed; // Change countersChanged to true, if there has been a change.
+        if (foldedLevels > 0 && sketchType != SketchType.HYPERLOGLOG){
+            throw new InvalidParameterException("Only HyperLogLog counters can be folded to lower precisions");
+        }else if (cacheSize > 0 && decoderThreads > 0){
+            throw new InvalidParameterException("Cache blocking can not be combined with decoder threads");
+        }
+
+        // pairs of the iterations before a resumed run, of run r at i bits less in index i * runs + r.
+        DistanceDistribution[] dists = new DistanceDistribution[numberOfRuns * (foldedLevels + 1)];
+        for (int i = 0; i < dists.length; i++) dists[i] = new DistanceDistribution();
+        counters = createCounterArray("counters");
+        newCounters = createCounterArray("new-counters");
+        tileShift = getTileShift();
+        centralities = computeCentralities ? new GeometricCentralities(GRAPH.numNodes()) : null;
+
+        // Resume from a checkpoint, or start with initialized counters.
+        Checkpoints checkpoints = checkpointDirectory == null ? null : new Checkpoints(checkpointDirectory, GRAPH);
+        t = restoreCheckpoint(checkpoints, dists);
+        if (t == 0) initializeCounters(counters);
+
+        boolean systolic = transposeGraph != null;
+        if (systolic){
+            marked = new boolean[GRAPH.numNodes()];
+            nextMarked = new boolean[GRAPH.numNodes()];
+            modified = new boolean[GRAPH.numNodes()];
+            Arrays.fill(marked, true);          // the first iteration visits every node.
+        }
+
+        // The chunks are divided over the threads that decode the successors.
+        boolean pipelined = decoderThreads > 0;
+        int decodingThreads = pipelined ? decoderThreads : NUMBER_OF_THREADS;
+        if (decodingThreads == 1){
+            chunks = new int[] {0, GRAPH.numNodes()};
+        } else {
+            // Without random access every chunk keeps an iterator open, so there is one chunk per thread.
+            chunks = splitNodeRange(GRAPH.randomAccess() ? decodingThreads * CHUNKS_PER_THREAD : decodingThreads);
+            if (!GRAPH.randomAccess()) chunkStarts = createChunkIterators();
+        }
+
+        IterationWorker[] workers = new IterationWorker[NUMBER_OF_THREADS];
+        // Pipelined workers only take decoded batches and need no graph, systolic ones still read the transpose in propagate().
+        if (NUMBER_OF_THREADS == 1){
+            workers[0] = new IterationWorker(pipelined ? null : GRAPH, transposeGraph);
+        } else {
+            for (int i = 0; i < workers.length; i++){
+                // graphs are not thread safe.
+                workers[i] = new IterationWorker(pipelined ? null : GRAPH.copy(), systolic ? transposeGraph.copy() : null);
+            }
+        }
+        ForkJoinPool pool = NUMBER_OF_THREADS > 1 ? new ForkJoinPool(NUMBER_OF_THREADS) : null;
+
+        DecoderWorker[] decoders = new DecoderWorker[decoderThreads];
+        ForkJoinPool decoderPool = pipelined ? new ForkJoinPool(decoderThreads) : null;
+        if (pipelined) createBatches(decoders);
+
+        touchedPerIteration.clear();
+        decoderUtilisation.clear();
+        unionUtilisation.clear();
+        double neighbourhoodFunction = GRAPH.numNodes() + new DistanceDistributionEstimate(getLevel(dists, 0)).getMeanDistribution().getTotal();    // N(t), every node reaches itself.
+        String stopReason = null;
+
+        try {
+            while (stopReason == null){
+                long start = System.currentTimeMillis();
+                if (pipelined){
+                    runPipelinedIteration(workers, pool, decoders, decoderPool);
+                } else {
+                    runPhase(workers, pool, IterationWorker::iterate);
+                }
+                // Most Memory in use at this moment.
+                Utilities.printMemoryUsage();
+                // The previous checkpoint may still be reading the counters that are about to change.
+                if (checkpoints != null) checkpoints.awaitWrite();
+                if (systolic){
+                    // Only changed counters are copied back, the others were not visited and may be stale in newCounters.
+                    runPhase(workers, pool, IterationWorker::propagate);
+                    boolean[] oldMarked = marked;
+                    marked = nextMarked;
+                    nextMarked = oldMarked;
+                } else {
+                    // replace the old counters with the new counters, the old array is reused for the next iteration.
+                    CardinalitySketchArray oldCounters = counters;
+                    counters = newCounters;
+                    newCounters = oldCounters;
+                }
+
+                long touched = 0;
+                long changed = 0;
+                long increase = 0;
+                for (IterationWorker worker : workers){
+                    touched += worker.nodesTouched;
+                    changed += worker.nodesChanged;
+                    increase += worker.pairsFound;        // summed over the runs.
+                }
+                touchedPerIteration.add(touched);
+                increase = increase / numberOfRuns;
+
+                t = t + 1;                  // update distance
+                long interval = System.currentTimeMillis() - start;
+                double minutes = (double) interval / 1000.0 / 60.0;
+                double touchedPercentage = GRAPH.numNodes() == 0 ? 0 : 100.0 * touched / GRAPH.numNodes();
+                System.out.printf("Iteration T: %d, Nodes touched: %d (%.2f%%), Counters changed: %d, Iteration took: %f minutes\n", t, touched, touchedPercentage, changed, minutes);
+                if (pipelined){
+                    System.out.printf("Decoders busy: %.1f%%, Unions busy: %.1f%%\n", 100 * decoderUtilisation.get(decoderUtilisation.size() - 1),
+                            100 * unionUtilisation.get(unionUtilisation.size() - 1));
+                }
+
+                if (checkpoints != null){
+                    // The centralities are updated in place by the next iteration, so the checkpoint gets a snapshot.
+                    GeometricCentralities snapshot = centralities == null ? null : new GeometricCentralities(centralities);
+                    checkpoints.writeInBackground(t, counters, getSeeds(), combineDistributions(dists, workers), snapshot);
+                }
+
+                stopReason = stopPolicy.getStopReason(t, increase, neighbourhoodFunction, changed, GRAPH.numNodes());
+                neighbourhoodFunction += increase;
+            }
+            System.out.printf("Stopped after iteration T: %d, %s\n", t, stopReason);
+            if (checkpoints != null) checkpoints.deleteAll();
+
+            if (centralities != null){
+                for (int node = 0; node < GRAPH.numNodes(); node++){
+                    double size = 0;
+                    for (int r = 0; r < numberOfRuns; r++) size += counters.getSize(node * numberOfRuns + r);
+                    centralities.setReachable(node, size / numberOfRuns);
                 }
+            }
+        } finally {
+            if (pool != null) pool.shutdown();
+            if (decoderPool != null) decoderPool.shutdown();
+            fullBatches = null;
+            freeBatches = null;
+            if (checkpoints != null) checkpoints.close();
+            closeCounters();
+            marked = null;
+            nextMarked = null;
+            modified = null;
+            chunkStarts = null;
+        }
+
+        DistanceDistribution[] combined = combineDistributions(dists, workers);
+        estimate = new DistanceDistributionEstimate(getLevel(combined, 0));
+        foldedEstimates = new DistanceDistributionEstimate[foldedLevels + 1];
+        for (int level = 0; level <= foldedLevels; level++){
+            foldedEstimates[level] = new DistanceDistributionEstimate(getLevel(combined, level));
+        }
+        return estimate.getMeanDistribution();
+    }
+
+    /**
+     * @return The hash seed of every run.
+     */
+    private int[] getSeeds()
+    {
+        int[] seeds = new int[numberOfRuns];
+        for (int r = 0; r < numberOfRuns; r++) seeds[r] = seed + r;
+        return seeds;
+    }
+
+    /**
+     * @param dists distributions of every run and precision.
+     * @param level number of bits less than the precision of this HyperBall.
+     * @return The distributions of the runs at a precision.
+     */
+    private DistanceDistribution[] getLevel(DistanceDistribution[] dists, int level)
+    {
+        return Arrays.copyOfRange(dists, level * numberOfRuns, (level + 1) * numberOfRuns);
+    }
+
+    /**
+     * Combines the partial distributions of the workers, for every run and precision.
+     * @param dists distributions of the iterations before this run.
+     * @param workers workers of this run.
+     * @return new distributions containing all pairs found so far.
+     */
+    private DistanceDistribution[] combineDistributions(DistanceDistribution[] dists, IterationWorker[] workers)
+    {
+        DistanceDistribution[] combined = new DistanceDistribution[dists.length];
+        for (int i = 0; i < dists.length; i++){
+            combined[i] = new DistanceDistribution();
+            combined[i].merge(dists[i]);
+            for (IterationWorker worker : workers){
+                combined[i].merge(worker.partialDistributions[i]);
+            }
+        }
+        return combined;
+    }
+
+    /**
+     * Restores the counters and distributions of the latest checkpoint.
+     * @param checkpoints the checkpoints, may be null.
+     * @param dists distributions to add the pairs of the checkpoint to, one per run and precision.
+     * @return the iteration to continue with, 0 when there is no checkpoint.
+     */
+    private int restoreCheckpoint(Checkpoints checkpoints, DistanceDistribution[] dists)
+    {
+        if (checkpoints == null) return 0;
+
+        try {
+            int restored = checkpoints.restoreLatest(counters, getSeeds(), dists, centralities);
+            if (restored > 0) System.out.printf("Resuming from checkpoint of iteration T: %d\n", restored);
+            return restored;
+        } catch (IOException e){
+            throw new UncheckedIOException("Could not restore checkpoint from " + checkpointDirectory, e);
+        }
+    }
+
+    /**
+     * Creates the decoders, each with its own copy of the graph, and the batches they fill.
+     * @param decoders array to store the decoders in.
+     */
+    private void createBatches(DecoderWorker[] decoders)
+    {
+        int numberOfBatches = decoders.length * BATCHES_PER_DECODER;
+        fullBatches = new AdjacencyBatchQueue(numberOfBatches);
+        freeBatches = new AdjacencyBatchQueue(numberOfBatches);
+        freeBatches.open(1);        // batches are recycled until the run ends, free batches never run out for good.
+        try {
+            for (int i = 0; i < numberOfBatches; i++) freeBatches.put(new AdjacencyBatchQueue.Batch(BATCH_NODES, BATCH_ARCS));
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();     // the queue has room for all batches, so put() does not wait.
+        }
+        for (int i = 0; i < decoders.length; i++) decoders[i] = new DecoderWorker(GRAPH.copy());
+    }
+
+    /**
+     * Runs an iteration with the decoders filling batches on their own threads, while the workers do the unions of
+     * the batches. Records the utilisation of both stages.
+     * @param workers the workers, a single worker is run on the calling thread.
+     * @param pool executor for the workers. Null when running sequentially.
+     * @param decoders the decoders.
+     * @param decoderPool executor for the decoders.
+     */
+    private void runPipelinedIteration(IterationWorker[] workers, ForkJoinPool pool, DecoderWorker[] decoders, ForkJoinPool decoderPool)
+    {
+        nextChunk.set(0);
+        fullBatches.open(decoders.length);
+        long start = System.nanoTime();
+        List<Future<?>> decoding = new ArrayList<>();
+        for (DecoderWorker decoder : decoders){
+            decoding.add(decoderPool.submit(decoder::decode));
+        }
+
+        runTasks(workers, pool, IterationWorker::consume);
+        try {
+            for (Future<?> result : decoding) result.get();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("HyperBall iteration was interrupted", e);
+        } catch (ExecutionException e){
+            throw new IllegalStateException("Decoding the graph failed", e.getCause());
+        }
+
+        double elapsed = Math.max(1, System.nanoTime() - start);
+        long decoderBusy = 0;
+        for (DecoderWorker decoder : decoders) decoderBusy += decoder.busyNanos;
+        long unionBusy = 0;
+        for (IterationWorker worker : workers) unionBusy += worker.busyNanos;
+        decoderUtilisation.add(decoderBusy / elapsed / decoders.length);
+        unionUtilisation.add(unionBusy / elapsed / workers.length);
+    }
 
-                // Update the distance distribution
-                long oldSize = counters[node].getSize();
-                long newSize = newCounters[node].getSize();
-                dist.increaseNumberOfPairs(t+1, newSize - oldSize);
+    /**
+     * Stops a pipelined iteration after a failure, so that no thread keeps waiting for a batch.
+     */
+    private void closeBatches()
+    {
+        fullBatches.close();
+        freeBatches.close();
+    }
+
+    /**
+     * A pass of the workers over all chunks.
+     */
+    private interface Phase {
+        /**
+         * @return Whether any counter has changed.
+         */
+        boolean run(IterationWorker worker);
+    }
+
+    /**
+     * Runs a single pass over all chunks.
+     * @param workers the workers, a single worker is run on the calling thread.
+     * @param pool executor for the workers. Null when running sequentially.
+     * @param phase the pass each worker runs.
+     * @return Whether any counter has changed.
+     */
+    private boolean runPhase(IterationWorker[] workers, ForkJoinPool pool, Phase phase)
+    {
+        nextChunk.set(0);
+        return runTasks(workers, pool, phase);
+    }
+
+    /**
+     * Runs every worker until it returns.
+     * @param workers the workers, a single worker is run on the calling thread.
+     * @param pool executor for the workers. Null when running sequentially.
+     * @param phase the pass each worker runs.
+     * @return Whether any counter has changed.
+     */
+    private boolean runTasks(IterationWorker[] workers, ForkJoinPool pool, Phase phase)
+    {
+        if (pool == null) return phase.run(workers[0]);
+
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (IterationWorker worker : workers){
+            tasks.add(() -> phase.run(worker));
+        }
+
+        boolean changed = false;
+        try {
+            for (Future<Boolean> result : pool.invokeAll(tasks)){
+                changed = result.get() | changed;
+            }
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("HyperBall iteration was interrupted", e);
+        } catch (ExecutionException e){
+            throw new IllegalStateException("HyperBall iteration failed", e.getCause());
+        }
+        return changed;
+    }
+
+    /**
+     * Splits the nodes into consecutive ranges that contain roughly the same number of arcs.
+     * Every node also counts as an arc, as its counter has to be copied.
+     * @param numberOfChunks the number of ranges to aim for.
+     * @return boundaries of the ranges, range i contains the nodes [result[i], result[i+1]).
+     */
+    private int[] splitNodeRange(int numberOfChunks)
+    {
+        long totalWork = 0;
+        NodeIterator iter = GRAPH.nodeIterator();
+        while (iter.hasNext()){
+            iter.nextInt();
+            totalWork += iter.outdegree() + 1;
+        }
+        long workPerChunk = Math.max(1, totalWork / numberOfChunks);
 
-                //  Write result to disk. This would half the memory usage. TODO
+        int[] boundaries = new int[numberOfChunks + 2];
+        int size = 1;       // boundaries[0] = 0
+        long work = 0;
+        iter = GRAPH.nodeIterator();
+        while (iter.hasNext()){
+            int node = iter.nextInt();
+            work += iter.outdegree() + 1;
+            if (work >= workPerChunk && size < boundaries.length - 1){
+                boundaries[size++] = node + 1;
+                work = 0;
             }
-            // Most Memory in use at this moment.
-            Utilities.printMemoryUsage();
-            counters = newCounters;     // replace the old counters with the new counters
-            t = t + 1;                  // update distance
-            long interval = System.currentTimeMillis() - start;
-            double minutes = (double) interval / 1000.0 / 60.0;
-            System.out.printf("Iteration T: %d, Iteration took: %f minutes\n", t, minutes);
-            if (t > MAX_ITERATIONS) break; // Premature Termination. NOT RECOMMENDED!
         }
+        if (boundaries[size - 1] != GRAPH.numNodes()) boundaries[size++] = GRAPH.numNodes();
+        return Arrays.copyOf(boundaries, size);
+    }
+
+    /**
+     * Positions an iterator at the start of every chunk, with a single scan of the graph.
+     * @return iterator i returns the nodes from chunks[i] on.
+     */
+    private NodeIterator[] createChunkIterators()
+    {
+        NodeIterator[] starts = new NodeIterator[chunks.length - 1];
+        NodeIterator iter = GRAPH.nodeIterator();
+        starts[0] = iter.copy(Integer.MAX_VALUE);
+        for (int chunk = 1; chunk < starts.length; chunk++){
+            while (iter.hasNext() && iter.nextInt() < chunks[chunk] - 1);
+            starts[chunk] = iter.copy(Integer.MAX_VALUE);
+        }
+        return starts;
+    }
 
-        return dist;
+    /**
+     * @param graph the copy of the graph of the calling thread.
+     * @return iterator returning the nodes of a chunk in order.
+     */
+    private NodeIterator chunkIterator(ImmutableGraph graph, int chunk)
+    {
+        if (chunkStarts == null) return graph.nodeIterator(chunks[chunk]);
+        return chunkStarts[chunk].copy(chunks[chunk + 1]);
     }
 
     /**
-     * Initialises an array of counters. Furthermore adds the respective node to the counters as their first item.
-     * @return Initialized array of HyperLogLog Counters with initial nodes added.
+     * Chooses the number of nodes of a tile, the largest power of two such that the counters of a tile and of a
+     * block of successors together fit in the cache.
+     * @return log2 of the number of nodes of a tile, -1 when iterations are not blocked.
      */
-    private HLLCounter[] initializeCounters(){
+    private int getTileShift(){
+        if (cacheSize == 0) return -1;
+        double bytesPerNode = (double) counters.getSerializedSize() / Math.max(1, GRAPH.numNodes());
+        long nodes = (long) (cacheSize / 2 / Math.max(1, bytesPerNode));
+        return Math.max(6, 63 - Long.numberOfLeadingZeros(Math.max(1, nodes)));       // at least 64 nodes.
+    }
 
-        HLLCounter[] counters = new HLLCounter[GRAPH.numNodes()];
-        for (int i = 0; i < counters.length; i++){
-            counters[i] = new HLLCounter(NUMBER_OF_BITS);
+    /**
+     * Creates an array of empty counters of the sketch type, on the heap or memory-mapped in the counter directory.
+     * @param name Name of the file, if memory-mapped.
+     * @return Array with a counter for every node and run.
+     */
+    private CardinalitySketchArray createCounterArray(String name){
+        int numberOfCounters = GRAPH.numNodes() * numberOfRuns;
+        File file = counterDirectory == null ? null : new File(counterDirectory, name + ".bin");
+        try {
+            switch (sketchType){
+                case TAILCUT_HYPERLOGLOG:
+                    if (file == null) return new TailCutHLLArray(numberOfCounters, NUMBER_OF_BITS, hashFunction);
+                    return new TailCutHLLArray(numberOfCounters, NUMBER_OF_BITS, hashFunction, file);
+                case BITSET:
+                    if (file == null) return new BitsetSketchArray(numberOfCounters, GRAPH.numNodes());
+                    return new BitsetSketchArray(numberOfCounters, GRAPH.numNodes(), file);
+                default:
+                    int width = registerWidth != 0 ? registerWidth : HLLCounterArray.getRegisterWidth(GRAPH.numNodes(), hashFunction.getWidth());
+                    if (file == null) return new HLLCounterArray(numberOfCounters, NUMBER_OF_BITS, hashFunction, width);
+                    return new HLLCounterArray(numberOfCounters, NUMBER_OF_BITS, hashFunction, width, file);
+            }
+        } catch (IOException e){
+            throw new UncheckedIOException("Could not create counter file in " + counterDirectory, e);
         }
-        
+    }
+
+    /**
+     * Releases both counter arrays, which removes their files when memory-mapped.
+     */
+    private void closeCounters(){
+        try {
+            if (counters != null) counters.close();
+            if (newCounters != null) newCounters.close();
+        } catch (IOException e){
+            System.err.println("An error has occurred while closing the counters");
+            e.printStackTrace();
+        }
+        counters = null;
+        newCounters = null;
+    }
+
+    /**
+     * Adds the respective node to the counters as their first item, hashed with the seed of every run.
+     * @param counters Array of empty counters.
+     */
+    private void initializeCounters(CardinalitySketchArray counters){
+
+        int[] seeds = getSeeds();
         NodeIterator iter = GRAPH.nodeIterator();
         while (iter.hasNext()){
             int node = iter.nextInt();
-            counters[node].add(node);
+            for (int r = 0; r < numberOfRuns; r++){
+                counters.add(node * numberOfRuns + r, node, seeds[r]);
+            }
+        }
+    }
+
+    // HELPER CLASS
+    /**
+     * Takes chunks of the current iteration until none are left.
+     * Keeps its own copy of the graph and its own part of the distance distribution of every run. In pipelined
+     * iterations the graph is null, the DecoderWorkers read it.
+     */
+    private class IterationWorker {
+        private final ImmutableGraph graph;
+        private final ImmutableGraph transpose;
+        private final DistanceDistribution[] partialDistributions = new DistanceDistribution[numberOfRuns * (foldedLevels + 1)];
+        private final long[] increases = new long[numberOfRuns * (foldedLevels + 1)];  // number of pairs at distance t+1 per run and precision.
+        private final boolean[] runChanged = new boolean[numberOfRuns]; // runs whose counter of the current node changed.
+        private final long[] foldedSizes = new long[foldedLevels + 1];
+        private final long[] oldFoldedSizes = new long[foldedLevels + 1];
+        private final int[] foldedRegisters = new int[foldedLevels > 0 ? 1 << NUMBER_OF_BITS : 0];
+        // Blocked iterations: the arcs of a tile, as (node - tile start, successor), before and after sorting them by block.
+        private int[] arcNodes = new int[0];
+        private int[] arcSuccessors = new int[0];
+        private int[] sortedNodes = new int[0];
+        private int[] sortedSuccessors = new int[0];
+        private int[] blockStarts;
+        private boolean[] tileVisited;
+        private boolean[] tileChanged;                  // runs whose counter changed, per node of the tile.
+        private long nodesTouched;
+        private long nodesChanged;
+        private long pairsFound;                // number of pairs at distance t+1 in the processed chunks, summed over the runs.
+        private long busyNanos;                 // pipelined: time spent on unions in this iteration.
+
+        private IterationWorker(ImmutableGraph graph, ImmutableGraph transpose){
+            this.graph = graph;
+            this.transpose = transpose;
+            for (int i = 0; i < partialDistributions.length; i++) partialDistributions[i] = new DistanceDistribution();
+        }
+
+        /**
+         * Computes the new counters of the nodes in the chunks.
+         * @return Whether any counter of the processed chunks has changed.
+         */
+        private boolean iterate(){
+            boolean countersChanged = false;    // should change to true if the counters indeed have changed
+            int runs = numberOfRuns;
+            startIteration();
+
+            // Systolic iterations skip most nodes, so they decode only the visited ones if the graph allows it.
+            boolean stream = transpose == null || !graph.randomAccess();
+
+            int chunk;
+            while ((chunk = nextChunk.getAndIncrement()) < chunks.length - 1){
+                NodeIterator nodeIter = stream ? chunkIterator(graph, chunk) : null;
+
+                if (tileShift >= 0){
+                    for (int from = chunks[chunk]; from < chunks[chunk + 1]; from += 1 << tileShift){
+                        countersChanged = iterateTile(from, Math.min(from + (1 << tileShift), chunks[chunk + 1]), nodeIter) | countersChanged;
+                    }
+                    continue;
+                }
+
+                // iterate over all nodes of the chunk.
+                for (int node = chunks[chunk]; node < chunks[chunk + 1]; node++){
+                    if (stream) nodeIter.nextInt();     // also for skipped nodes, the iterator has to stay at node.
+                    if (transpose != null){
+                        nextMarked[node] = false;           // cleared before any worker starts propagating.
+                        if (!marked[node]) continue;
+                    }
+                    nodesTouched++;
+                    startNode(node, runChanged, 0);
+
+                    int[] neighbors = stream ? nodeIter.successorArray() : graph.successorArray(node);
+                    int outdegree = stream ? nodeIter.outdegree() : graph.outdegree(node);
+
+                    // iterate over all neighbors.
+                    int first = node * runs;
+                    for (int i = 0; i < outdegree; i++){
+                        int neighborFirst = neighbors[i] * runs;
+                        for (int r = 0; r < runs; r++){
+                            runChanged[r] = newCounters.union(first + r, counters, neighborFirst + r) | runChanged[r];
+                        }
+                    }
+
+                    countersChanged = finishNode(node, runChanged, 0) | countersChanged;
+                }
+            }
+
+            finishIteration();
+            return countersChanged;
+        }
+
+        /**
+         * Pipelined iterations: computes the new counters of the nodes in the batches filled by the decoders.
+         * @return Whether any counter of the processed batches has changed.
+         */
+        private boolean consume(){
+            boolean countersChanged = false;
+            int runs = numberOfRuns;
+            startIteration();
+            long start = System.nanoTime();
+            long waiting = 0;
+
+            try {
+                while (true){
+                    long waitStart = System.nanoTime();
+                    AdjacencyBatchQueue.Batch batch = fullBatches.take();
+                    waiting += System.nanoTime() - waitStart;
+                    if (batch == null) break;
+
+                    for (int i = 0; i < batch.size; i++){
+                        int node = batch.nodes[i];
+                        nodesTouched++;
+                        startNode(node, runChanged, 0);
+                        int first = node * runs;
+                        for (int arc = batch.offsets[i]; arc < batch.offsets[i + 1]; arc++){
+                            int neighborFirst = batch.successors[arc] * runs;
+                            for (int r = 0; r < runs; r++){
+                                runChanged[r] = newCounters.union(first + r, counters, neighborFirst + r) | runChanged[r];
+                            }
+                        }
+                        countersChanged = finishNode(node, runChanged, 0) | countersChanged;
+                    }
+
+                    batch.clear();
+                    freeBatches.put(batch);
+                }
+            } catch (InterruptedException e){
+                closeBatches();
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("HyperBall iteration was interrupted", e);
+            } catch (RuntimeException e){
+                closeBatches();
+                throw e;
+            }
+
+            busyNanos = System.nanoTime() - start - waiting;
+            finishIteration();
+            return countersChanged;
+        }
+
+        private void startIteration(){
+            Arrays.fill(increases, 0);
+            nodesTouched = 0;
+            nodesChanged = 0;
+        }
+
+        /**
+         * Adds the pairs found in this iteration to the partial distributions.
+         */
+        private void finishIteration(){
+            pairsFound = 0;
+            for (int i = 0; i < increases.length; i++){
+                // A distance without pairs is left out, as BfsTraversal does.
+                if (increases[i] != 0) partialDistributions[i].increaseNumberOfPairs(t+1, increases[i]);
+                if (i < numberOfRuns) pairsFound += increases[i];
+            }
+        }
+
+        /**
+         * Starts the new counters of a node as a copy of its counters.
+         * @param changed flags to clear, of every run of the node from offset on.
+         */
+        private void startNode(int node, boolean[] changed, int offset){
+            int first = node * numberOfRuns;
+            for (int r = 0; r < numberOfRuns; r++){
+                newCounters.copy(first + r, counters);
+                changed[offset + r] = false;
+            }
+        }
+
+        /**
+         * Updates the distance distribution with the new counters of a node, sizes are maintained by the counters so only changed counters matter.
+         * @param changed whether the counter of every run of the node changed, from offset on.
+         * @return Whether any counter of the node has changed.
+         */
+        private boolean finishNode(int node, boolean[] changed, int offset){
+            int first = node * numberOfRuns;
+            boolean nodeChanged = false;
+            for (int r = 0; r < numberOfRuns; r++){
+                if (!changed[offset + r]) continue;
+                nodeChanged = true;
+                long nodeIncrease = newCounters.getSize(first + r) - counters.getSize(first + r);
+                increases[r] += nodeIncrease;
+                if (foldedLevels > 0) addFoldedIncreases(first + r, r);
+                if (centralities != null) centralities.addNodesAtDistance(node, t+1, (double) nodeIncrease / numberOfRuns);
+            }
+            if (nodeChanged){
+                nodesChanged++;
+                if (transpose != null) modified[node] = true;
+            }
+            return nodeChanged;
+        }
+
+        /**
+         * Computes the new counters of the nodes [from, to) by blocks of successors. First the arcs of the tile are
+         * collected and sorted by the block of their successor with a counting sort, then the unions are done in that
+         * order.
+         * @param nodeIter iterator positioned before from, null when the graph is accessed randomly.
+         * @return Whether any counter of the tile has changed.
+         */
+        private boolean iterateTile(int from, int to, NodeIterator nodeIter){
+            int runs = numberOfRuns;
+            int tileNodes = to - from;
+            if (tileVisited == null){
+                tileVisited = new boolean[1 << tileShift];
+                tileChanged = new boolean[(1 << tileShift) * runs];
+                blockStarts = new int[(graph.numNodes() >>> tileShift) + 2];
+            }
+
+            // Collect the arcs of the visited nodes.
+            int arcs = 0;
+            for (int row = 0; row < tileNodes; row++){
+                int node = from + row;
+                if (nodeIter != null) nodeIter.nextInt();
+                tileVisited[row] = false;
+                if (transpose != null){
+                    nextMarked[node] = false;
+                    if (!marked[node]) continue;
+                }
+                tileVisited[row] = true;
+                nodesTouched++;
+                startNode(node, tileChanged, row * runs);
+
+                int[] neighbors = nodeIter != null ? nodeIter.successorArray() : graph.successorArray(node);
+                int outdegree = nodeIter != null ? nodeIter.outdegree() : graph.outdegree(node);
+                if (arcs + outdegree > arcNodes.length) growArcs(arcs + outdegree);
+                for (int i = 0; i < outdegree; i++){
+                    arcNodes[arcs] = row;
+                    arcSuccessors[arcs] = neighbors[i];
+                    arcs++;
+                }
+            }
+
+            // Counting sort of the arcs by the block of their successor.
+            Arrays.fill(blockStarts, 0);
+            for (int a = 0; a < arcs; a++) blockStarts[(arcSuccessors[a] >>> tileShift) + 1]++;
+            for (int block = 1; block < blockStarts.length; block++) blockStarts[block] += blockStarts[block - 1];
+            for (int a = 0; a < arcs; a++){
+                int position = blockStarts[arcSuccessors[a] >>> tileShift]++;
+                sortedNodes[position] = arcNodes[a];
+                sortedSuccessors[position] = arcSuccessors[a];
+            }
+
+            for (int a = 0; a < arcs; a++){
+                int row = sortedNodes[a];
+                int first = (from + row) * runs;
+                int neighborFirst = sortedSuccessors[a] * runs;
+                for (int r = 0; r < runs; r++){
+                    tileChanged[row * runs + r] = newCounters.union(first + r, counters, neighborFirst + r) | tileChanged[row * runs + r];
+                }
+            }
+
+            boolean changed = false;
+            for (int row = 0; row < tileNodes; row++){
+                if (tileVisited[row]) changed = finishNode(from + row, tileChanged, row * runs) | changed;
+            }
+            return changed;
+        }
+
+        private void growArcs(int capacity){
+            int length = Math.max(capacity, 2 * arcNodes.length);
+            arcNodes = Arrays.copyOf(arcNodes, length);
+            arcSuccessors = Arrays.copyOf(arcSuccessors, length);
+            sortedNodes = new int[length];
+            sortedSuccessors = new int[length];
+        }
+
+        /**
+         * Adds the increase of a changed counter at every lower precision, by folding its old and new registers.
+         * @param counter index of the counter.
+         * @param run the run of the counter.
+         */
+        private void addFoldedIncreases(int counter, int run){
+            ((HLLCounterArray) newCounters).getFoldedSizes(counter, foldedSizes, foldedRegisters);
+            ((HLLCounterArray) counters).getFoldedSizes(counter, oldFoldedSizes, foldedRegisters);
+            for (int level = 1; level <= foldedLevels; level++){
+                increases[level * numberOfRuns + run] += foldedSizes[level] - oldFoldedSizes[level];
+            }
+        }
+
+        /**
+         * Systolic mode: copies the changed counters of the chunks back and marks their predecessors for the next iteration.
+         * @return false, counters do not change.
+         */
+        private boolean propagate(){
+            int chunk;
+            while ((chunk = nextChunk.getAndIncrement()) < chunks.length - 1){
+                for (int node = chunks[chunk]; node < chunks[chunk + 1]; node++){
+                    if (!modified[node]) continue;
+                    modified[node] = false;
+                    for (int r = 0; r < numberOfRuns; r++) counters.copy(node * numberOfRuns + r, newCounters);
+
+                    LazyIntIterator predecessorIter = transpose.successors(node);
+                    int predecessor;
+                    while ((predecessor = predecessorIter.nextInt()) != -1){
+                        nextMarked[predecessor] = true;
+                    }
+                }
+            }
+            return false;
         }
-        
-        return counters;
     }
 
-}   
\ No newline at end of file
+    /**
+     * Pipelined iterations: takes chunks of the current iteration until none are left and decodes the successor lists
+     * of their visited nodes into batches for the IterationWorkers. Keeps its own copy of the graph.
+     */
+    private class DecoderWorker {
+        private final ImmutableGraph graph;
+        private long busyNanos;                 // time spent decoding in this iteration.
+
+        private DecoderWorker(ImmutableGraph graph){
+            this.graph = graph;
+        }
+
+        private void decode(){
+            long start = System.nanoTime();
+            long waiting = 0;
+            // As in IterationWorker.iterate(), systolic iterations decode only the visited nodes if the graph allows it.
+            boolean systolic = transposeGraph != null;
+            boolean stream = !systolic || !graph.randomAccess();
+
+            try {
+                AdjacencyBatchQueue.Batch batch = null;
+                int chunk;
+                while ((chunk = nextChunk.getAndIncrement()) < chunks.length - 1){
+                    NodeIterator nodeIter = stream ? chunkIterator(graph, chunk) : null;
+                    for (int node = chunks[chunk]; node < chunks[chunk + 1]; node++){
+                        if (stream) nodeIter.nextInt();
+                        if (systolic){
+                            nextMarked[node] = false;
+                            if (!marked[node]) continue;
+                        }
+                        int[] successors = stream ? nodeIter.successorArray() : graph.successorArray(node);
+                        int outdegree = stream ? nodeIter.outdegree() : graph.outdegree(node);
+
+                        if (batch != null && batch.size > 0 && !batch.fits(outdegree)){
+                            long waitStart = System.nanoTime();
+                            fullBatches.put(batch);
+                            batch = null;
+                            waiting += System.nanoTime() - waitStart;
+                        }
+                        if (batch == null){
+                            long waitStart = System.nanoTime();
+                            batch = freeBatches.take();
+                            waiting += System.nanoTime() - waitStart;
+                            if (batch == null) return;      // closed after a failure.
+                        }
+                        batch.add(node, successors, outdegree);
+                    }
+                }
+                if (batch != null){
+                    long waitStart = System.nanoTime();
+                    fullBatches.put(batch);
+                    waiting += System.nanoTime() - waitStart;
+                }
+            } catch (InterruptedException e){
+                closeBatches();
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Decoding was interrupted", e);
+            } catch (RuntimeException e){
+                closeBatches();
+                throw e;
+            } finally {
+                fullBatches.producerDone();
+                busyNanos = System.nanoTime() - start - waiting;
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package utwente.jjw.meijer.hyperball;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import it.unimi.dsi.webgraph.ImmutableGraph;
+import it.unimi.dsi.webgraph.LazyIntIterator;
+
+
+/**
+ * Exact distance distribution by bit-parallel multi-source BFS. Instead of one BFS per source, as BfsTraversal does,
+ * a batch of 64 * w sources is searched at once: every node keeps w words of bits, bit i telling whether source i of
+ * the batch has seen the node. A level scans the successor lists of the nodes in the frontier of any source once, and
+ * ors the frontier bits of a node into its successors. The new bits of a node are the sources that reach it at this
+ * distance, so a level costs O(n * w + m * w) word operations for all sources of the batch together.
+ *
+ * Batches are searched in parallel, every thread with its own copy of the graph and its own bitsets of 3 * n * w
+ * words. The result equals that of BfsTraversal.
+ */
+public class MultiSourceBfs {
+
+    private final ImmutableGraph graph;
+    private final int numberOfThreads;
+    private int wordsPerNode = 1;       // 64 sources per batch.
+
+    /**
+     * @param graph The graph to analyse, with random access.
+     * @param numberOfThreads The number of batches searched at the same time.
+     * @throws InvalidParameterException
+     */
+    public MultiSourceBfs(ImmutableGraph graph, int numberOfThreads) throws InvalidParameterException
+    {
+        if (!graph.randomAccess()){
+            throw new InvalidParameterException("Graph must have random-access enabled");
+        }else if (numberOfThreads < 1){
+            throw new InvalidParameterException("Number of threads must be at least 1");
+        }
+        this.graph = graph;
+        this.numberOfThreads = numberOfThreads;
+    }
+
+    /**
+     * Sets the number of sources searched together. More sources share the scans of the successor lists, but every
+     * thread needs 24 bytes per node for every 64 sources.
+     * @param sourcesPerBatch A positive multiple of 64.
+     * @throws InvalidParameterException
+     */
+    public void setSourcesPerBatch(int sourcesPerBatch) throws InvalidParameterException
+    {
+        if (sourcesPerBatch < Long.SIZE || sourcesPerBatch % Long.SIZE != 0){
+            throw new InvalidParameterException("Number of sources per batch must be a positive multiple of 64");
+        }else if ((long) graph.numNodes() * (sourcesPerBatch / Long.SIZE) > Integer.MAX_VALUE){
+            throw new InvalidParameterException("Bitsets of this many sources do not fit in an array");
+        }
+        this.wordsPerNode = sourcesPerBatch / Long.SIZE;
+    }
+
+    /**
+     * Computes the exact distance distribution, the number of pairs of nodes at every distance.
+     * @return Distance Distribution.
+     */
+    public DistanceDistribution getDistanceDistribution()
+    {
+        int sourcesPerBatch = wordsPerNode * Long.SIZE;
+        int numberOfBatches = (int) (((long) graph.numNodes() + sourcesPerBatch - 1) / sourcesPerBatch);
+        AtomicInteger nextBatch = new AtomicInteger();
+
+        List<BatchWorker> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(numberOfThreads, numberOfBatches); i++){
+            // graphs are not thread safe.
+            workers.add(new BatchWorker(numberOfThreads == 1 ? graph : graph.copy(), nextBatch, numberOfBatches));
+        }
+
+        DistanceDistribution distribution = new DistanceDistribution();
+        if (workers.size() == 1){
+            distribution.merge(workers.get(0).call());
+        } else if (workers.size() > 1){
+            ForkJoinPool pool = new ForkJoinPool(workers.size());
+            try {
+                for (Future<DistanceDistribution> result : pool.invokeAll(workers)){
+                    distribution.merge(result.get());
+                }
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Multi-source BFS was interrupted", e);
+            } catch (ExecutionException e){
+                throw new IllegalStateException("Multi-source BFS failed", e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+        }
+        return distribution;
+    }
+
+    // HELPER CLASS
+    /**
+     * Searches batches of sources until none are left, adding the pairs it finds to its own distribution.
+     */
+    private class BatchWorker implements Callable<DistanceDistribution> {
+        private final ImmutableGraph graph;
+        private final AtomicInteger nextBatch;
+        private final int numberOfBatches;
+        private final int words = wordsPerNode;
+        private final long[] seen;          // word w of node v at v * words + w.
+        private final long[] frontier;
+        private final long[] next;
+
+        private BatchWorker(ImmutableGraph graph, AtomicInteger nextBatch, int numberOfBatches)
+        {
+            this.graph = graph;
+            this.nextBatch = nextBatch;
+            this.numberOfBatches = numberOfBatches;
+            int length = graph.numNodes() * words;
+            this.seen = new long[length];
+            this.frontier = new long[length];
+            this.next = new long[length];
+        }
+
+        @Override
+        public DistanceDistribution call()
+        {
+            DistanceDistribution distribution = new DistanceDistribution();
+            int batch;
+            while ((batch = nextBatch.getAndIncrement()) < numberOfBatches){
+                search(batch * words * Long.SIZE, distribution);
+            }
+            return distribution;
+        }
+
+        /**
+         * Runs the BFS of the sources [first, first + 64 * words) at once.
+         */
+        private void search(int first, DistanceDistribution distribution)
+        {
+            int n = graph.numNodes();
+            Arrays.fill(seen, 0);
+            Arrays.fill(frontier, 0);
+            int last = Math.min(n, first + words * Long.SIZE);
+            for (int source = first; source < last; source++){
+                int lane = source - first;
+                int index = source * words + lane / Long.SIZE;
+                seen[index] |= 1L << lane;
+                frontier[index] |= 1L << lane;
+            }
+
+            boolean frontierEmpty = last == first;
+            for (int distance = 1; !frontierEmpty; distance++){
+                // Every node of a frontier passes the sources that reached it on to its successors.
+                for (int node = 0; node < n; node++){
+                    int offset = node * words;
+                    long any = 0;
+                    for (int w = 0; w < words; w++) any |= frontier[offset + w];
+                    if (any == 0) continue;
+
+                    LazyIntIterator successorIter = graph.successors(node);
+                    int successor;
+                    while ((successor = successorIter.nextInt()) != -1){
+                        int successorOffset = successor * words;
+                        for (int w = 0; w < words; w++) next[successorOffset + w] |= frontier[offset + w];
+                    }
+                }
+
+                // Sources that reach a node for the first time are at this distance.
+                long pairs = 0;
+                for (int i = 0; i < next.length; i++){
+                    long found = next[i] & ~seen[i];
+                    seen[i] |= found;
+                    frontier[i] = found;
+                    next[i] = 0;
+                    pairs += Long.bitCount(found);
+                }
+                if (pairs != 0) distribution.increaseNumberOfPairs(distance, pairs);
+                frontierEmpty = pairs == 0;
+            }
+        }
+    }
+}
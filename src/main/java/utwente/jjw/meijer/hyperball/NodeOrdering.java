@@ -0,0 +1,116 @@
+package utwente.jjw.meijer.hyperball;
+
+import java.security.InvalidParameterException;
+
+import it.unimi.dsi.webgraph.ImmutableGraph;
+import it.unimi.dsi.webgraph.NodeIterator;
+
+
+/**
+ * Orders of the nodes that give neighbours nearby IDs. HyperBall reads the counter of every successor in every
+ * iteration, so when successors have nearby IDs their counters share cache lines and pages, and BVGraph compresses
+ * the gaps between them better.
+ *
+ * A permutation maps every node to its new ID: node v of the original graph is node permutation[v] of the relabeled
+ * graph. See Graphs.loadRelabeledGraph() to relabel a graph.
+ */
+public enum NodeOrdering {
+
+    /**
+     * Order in which a breadth-first search visits the nodes, following successors. Every node not reached yet starts
+     * a new search, in the original order. Nodes at the same distance of a node, which HyperBall reads together,
+     * get consecutive IDs.
+     */
+    BFS("-bfs") {
+        @Override
+        public int[] getPermutation(ImmutableGraph graph) throws InvalidParameterException
+        {
+            if (!graph.randomAccess()) throw new InvalidParameterException("Graph must have random-access enabled");
+            int n = graph.numNodes();
+            int[] permutation = new int[n];
+            int[] queue = new int[n];       // nodes in order of their new ID.
+            boolean[] visited = new boolean[n];
+            int visitedNodes = 0;
+            for (int root = 0; root < n; root++){
+                if (visited[root]) continue;
+                visited[root] = true;
+                queue[visitedNodes++] = root;
+                for (int head = visitedNodes - 1; head < visitedNodes; head++){
+                    int node = queue[head];
+                    permutation[node] = head;
+                    int[] successors = graph.successorArray(node);
+                    int outdegree = graph.outdegree(node);
+                    for (int i = 0; i < outdegree; i++){
+                        if (visited[successors[i]]) continue;
+                        visited[successors[i]] = true;
+                        queue[visitedNodes++] = successors[i];
+                    }
+                }
+            }
+            return permutation;
+        }
+    },
+
+    /**
+     * Order of decreasing outdegree, ties in the original order. The counters of the nodes that are read most often
+     * are then stored together.
+     */
+    DEGREE("-degree") {
+        @Override
+        public int[] getPermutation(ImmutableGraph graph)
+        {
+            int n = graph.numNodes();
+            int[] outdegrees = new int[n];
+            int maxDegree = 0;
+            NodeIterator nodeIter = graph.nodeIterator();
+            for (int i = 0; i < n; i++){
+                int node = nodeIter.nextInt();
+                outdegrees[node] = nodeIter.outdegree();
+                maxDegree = Math.max(maxDegree, outdegrees[node]);
+            }
+
+            // Counting sort by decreasing outdegree, stable.
+            int[] starts = new int[maxDegree + 2];
+            for (int node = 0; node < n; node++) starts[maxDegree - outdegrees[node] + 1]++;
+            for (int i = 1; i < starts.length; i++) starts[i] += starts[i - 1];
+            int[] permutation = new int[n];
+            for (int node = 0; node < n; node++) permutation[node] = starts[maxDegree - outdegrees[node]]++;
+            return permutation;
+        }
+    };
+
+    private final String suffix;
+
+    private NodeOrdering(String suffix)
+    {
+        this.suffix = suffix;
+    }
+
+    /**
+     * @return Suffix of the basename of a graph relabeled in this order, for example "-bfs".
+     */
+    public String getSuffix()
+    {
+        return suffix;
+    }
+
+    /**
+     * Computes the new ID of every node.
+     * @param graph The graph to order.
+     * @return The permutation, node v gets ID permutation[v].
+     */
+    public abstract int[] getPermutation(ImmutableGraph graph);
+
+    /**
+     * Maps per-node values of a relabeled graph back to the original nodes.
+     * @param values The value of every node of the relabeled graph.
+     * @param permutation The permutation the graph was relabeled with.
+     * @return The value of every node of the original graph.
+     */
+    public static double[] toOriginalNodes(double[] values, int[] permutation)
+    {
+        double[] original = new double[values.length];
+        for (int node = 0; node < permutation.length; node++) original[node] = values[permutation[node]];
+        return original;
+    }
+}
@@ -0,0 +1,90 @@
+package utwente.jjw.meijer.hyperball;
+
+import java.security.InvalidParameterException;
+
+
+/**
+ * Decides when HyperBall stops iterating. HyperBall always stops once no counter changes; a stop policy can stop it
+ * earlier, when the remaining iterations hardly change the result.
+ *
+ * After iteration t the policy sees the increase of the neighbourhood function N(t), which is the number of pairs
+ * found at distance t, and the number of counters that changed. Every condition is disabled by default, so the
+ * default policy runs until the counters have converged.
+ */
+public class StopPolicy {
+
+    private int maxIterations = Integer.MAX_VALUE;
+    private double minAbsoluteIncrease = 0;     // in pairs.
+    private double minRelativeIncrease = 0;     // relative to N(t-1).
+    private double minChangedFraction = 0;      // fraction of the nodes.
+
+    /**
+     * Stops after a number of iterations, even when counters still change.
+     * @param maxIterations The maximum number of iterations.
+     * @throws InvalidParameterException
+     */
+    public void setMaxIterations(int maxIterations) throws InvalidParameterException
+    {
+        if (maxIterations < 1) throw new InvalidParameterException("Maximum number of iterations must be at least 1");
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * Stops when an iteration adds fewer pairs to the neighbourhood function.
+     * @param minAbsoluteIncrease Minimum number of pairs an iteration should add.
+     * @throws InvalidParameterException
+     */
+    public void setMinAbsoluteIncrease(double minAbsoluteIncrease) throws InvalidParameterException
+    {
+        if (minAbsoluteIncrease < 0) throw new InvalidParameterException("Minimum increase can not be negative");
+        this.minAbsoluteIncrease = minAbsoluteIncrease;
+    }
+
+    /**
+     * Stops when an iteration increases the neighbourhood function relatively less.
+     * For example 1e-5 stops once an iteration adds less than 0.001% to the number of pairs found so far.
+     * @param minRelativeIncrease Minimum relative increase of the neighbourhood function.
+     * @throws InvalidParameterException
+     */
+    public void setMinRelativeIncrease(double minRelativeIncrease) throws InvalidParameterException
+    {
+        if (minRelativeIncrease < 0) throw new InvalidParameterException("Minimum relative increase can not be negative");
+        this.minRelativeIncrease = minRelativeIncrease;
+    }
+
+    /**
+     * Stops when the counters of fewer nodes changed in an iteration.
+     * @param minChangedFraction Minimum fraction of the nodes whose counter should change, between 0 and 1.
+     * @throws InvalidParameterException
+     */
+    public void setMinChangedFraction(double minChangedFraction) throws InvalidParameterException
+    {
+        if (minChangedFraction < 0 || minChangedFraction > 1) throw new InvalidParameterException("Fraction must be between 0 and 1");
+        this.minChangedFraction = minChangedFraction;
+    }
+
+    /**
+     * Checks whether HyperBall should stop after an iteration.
+     * @param t The iteration that just finished.
+     * @param increase N(t) - N(t-1), the number of pairs at distance t.
+     * @param neighbourhoodFunction N(t-1), the number of pairs at distance less than t.
+     * @param changedCounters The number of counters that changed in iteration t.
+     * @param numNodes The number of nodes of the graph.
+     * @return The reason to stop, null to continue.
+     */
+    public String getStopReason(int t, long increase, double neighbourhoodFunction, long changedCounters, int numNodes)
+    {
+        if (changedCounters == 0){
+            return "no counter changed";
+        }else if (t >= maxIterations){
+            return String.format("reached the maximum of %d iterations", maxIterations);
+        }else if (increase < minAbsoluteIncrease){
+            return String.format("neighbourhood function increased by %d pairs, less than %.0f", increase, minAbsoluteIncrease);
+        }else if (neighbourhoodFunction > 0 && increase / neighbourhoodFunction < minRelativeIncrease){
+            return String.format("neighbourhood function increased by %g%%, less than %g%%", 100.0 * increase / neighbourhoodFunction, 100.0 * minRelativeIncrease);
+        }else if ((double) changedCounters / numNodes < minChangedFraction){
+            return String.format("%d counters changed, less than %g%% of the nodes", changedCounters, 100.0 * minChangedFraction);
+        }
+        return null;
+    }
+}
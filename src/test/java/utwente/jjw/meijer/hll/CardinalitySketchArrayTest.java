@@ -0,0 +1,136 @@
+package utwente.jjw.meijer.hll;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks the tail cut and bitset sketches against HLLCounterArray and exact sets.
+ */
+public class CardinalitySketchArrayTest {
+
+    private static final int NUMBER_OF_BITS = 6;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Register value of a tail cut counter for the register value of a full HyperLogLog counter.
+     */
+    private static int cutOff(int register, int base){
+        return Math.min(register, base + 15);
+    }
+
+    @Test
+    public void testTailCutAddMatchesHyperLogLog(){
+        TailCutHLLArray tailCut = new TailCutHLLArray(3, NUMBER_OF_BITS, new Murmur3Hash32());
+        HLLCounterArray reference = new HLLCounterArray(3, NUMBER_OF_BITS);
+
+        for (int item = 0; item < 100000; item++){
+            tailCut.add(1, item, 7);
+            reference.add(1, item, 7);
+        }
+
+        assertTrue("Base should have risen", tailCut.getBase(1) > 0);
+        for (int j = 0; j < tailCut.getNumberOfRegisters(); j++){
+            assertEquals(cutOff(reference.getRegister(1, j), tailCut.getBase(1)), tailCut.getRegister(1, j));
+            assertEquals(0, tailCut.getRegister(0, j));   // neighbouring counters should not be touched.
+            assertEquals(0, tailCut.getRegister(2, j));
+        }
+        assertEquals(reference.getSize(1), tailCut.getSize(1), 0.01 * reference.getSize(1));
+    }
+
+    @Test
+    public void testTailCutUnionMatchesHyperLogLog(){
+        TailCutHLLArray tailCut = new TailCutHLLArray(3, NUMBER_OF_BITS, new Murmur3Hash32());
+        HLLCounterArray reference = new HLLCounterArray(3, NUMBER_OF_BITS);
+
+        // Counters of very different sizes have different bases.
+        for (int item = 0; item < 50000; item++){
+            int counter = item % 50 == 0 ? 0 : 1;
+            tailCut.add(counter, item, 0);
+            reference.add(counter, item, 0);
+        }
+        for (int item = 0; item < 300; item++){
+            tailCut.add(2, item, 0);
+            reference.add(2, item, 0);
+        }
+
+        assertTrue(tailCut.union(0, tailCut, 1));
+        reference.union(0, reference, 1);
+        assertFalse("Union with a subset should not change the counter", tailCut.union(0, tailCut, 2));
+        assertTrue(tailCut.union(2, tailCut, 0));
+        reference.union(2, reference, 0);
+
+        for (int counter = 0; counter < 3; counter++){
+            for (int j = 0; j < tailCut.getNumberOfRegisters(); j++){
+                assertEquals(cutOff(reference.getRegister(counter, j), tailCut.getBase(counter)), tailCut.getRegister(counter, j));
+            }
+            assertEquals(reference.getSize(counter), tailCut.getSize(counter), 0.01 * reference.getSize(counter));
+        }
+    }
+
+    @Test
+    public void testTailCutWriteRead() throws IOException{
+        TailCutHLLArray written = new TailCutHLLArray(4, NUMBER_OF_BITS, new Murmur3Hash32());
+        for (int item = 0; item < 20000; item++) written.add(item % 4, item, 0);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        written.write(Channels.newChannel(bytes));
+        assertEquals(written.getSerializedSize(), bytes.size());
+
+        TailCutHLLArray read = new TailCutHLLArray(4, NUMBER_OF_BITS, new Murmur3Hash32());
+        read.read(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+        for (int counter = 0; counter < 4; counter++){
+            assertEquals(written.getBase(counter), read.getBase(counter));
+            assertEquals(written.getSize(counter), read.getSize(counter));
+        }
+    }
+
+    @Test
+    public void testMappedTailCutMatchesHeap() throws IOException{
+        File directory = temporaryFolder.newFolder();
+        TailCutHLLArray heap = new TailCutHLLArray(4, NUMBER_OF_BITS, new Murmur3Hash32());
+        TailCutHLLArray mapped = new TailCutHLLArray(4, NUMBER_OF_BITS, new Murmur3Hash32(), new File(directory, "counters"));
+        for (int item = 0; item < 20000; item++){
+            heap.add(item % 3, item, 0);
+            mapped.add(item % 3, item, 0);
+        }
+        heap.union(3, heap, 0);
+        mapped.union(3, mapped, 0);
+
+        for (int counter = 0; counter < 4; counter++){
+            assertEquals(heap.getBase(counter), mapped.getBase(counter));
+            assertEquals(heap.getSize(counter), mapped.getSize(counter));
+        }
+        mapped.close();
+        assertEquals("Register and sum files should be removed", 0, directory.list().length);
+    }
+
+    @Test
+    public void testBitsetIsExact(){
+        BitsetSketchArray bitset = new BitsetSketchArray(3, 200);
+        for (int item = 0; item < 200; item += 3) bitset.add(0, item, 0);
+        for (int item = 0; item < 200; item += 5) bitset.add(1, item, 0);
+
+        assertEquals(67, bitset.getSize(0));
+        assertEquals(40, bitset.getSize(1));
+        assertFalse(bitset.add(0, 3, 1));
+        assertTrue(bitset.union(0, bitset, 1));
+        assertFalse(bitset.union(0, bitset, 1));
+        assertEquals(67 + 40 - 14, bitset.getSize(0));   // 14 multiples of 15 below 200.
+        assertTrue(bitset.contains(0, 195));
+        assertFalse(bitset.contains(0, 199));
+        assertEquals(0, bitset.getSize(2));
+    }
+}
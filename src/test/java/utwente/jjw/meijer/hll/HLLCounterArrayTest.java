@@ -0,0 +1,191 @@
+package utwente.jjw.meijer.hll;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks the packed counter array against the reference HLLCounter.
+ */
+public class HLLCounterArrayTest {
+
+    @Test
+    public void testAddMatchesHLLCounter(){
+        final int NUMBER_OF_BITS = 5;
+        HLLCounterArray array = new HLLCounterArray(3, NUMBER_OF_BITS);
+        HLLCounter reference = new HLLCounter(NUMBER_OF_BITS);
+
+        for (int item = 0; item < 1000; item++){
+            assertEquals(reference.add(item), array.add(1, item));
+        }
+
+        for (int j = 0; j < reference.getNumberOfRegisters(); j++){
+            assertEquals(reference.getRegister(j), array.getRegister(1, j));
+            assertEquals(0, array.getRegister(0, j));   // neighbouring counters should not be touched.
+            assertEquals(0, array.getRegister(2, j));
+        }
+    }
+
+    @Test
+    public void testUnionMatchesHLLCounter(){
+        final int NUMBER_OF_BITS = 4;
+        HLLCounterArray array = new HLLCounterArray(2, NUMBER_OF_BITS);
+        HLLCounter counter1 = new HLLCounter(NUMBER_OF_BITS);
+        HLLCounter counter2 = new HLLCounter(NUMBER_OF_BITS);
+
+        for (int item = 0; item < 200; item++){
+            if (item % 3 == 0){
+                array.add(0, item);
+                counter1.add(item);
+            } else {
+                array.add(1, item);
+                counter2.add(item);
+            }
+        }
+
+        assertEquals(counter1.union(counter2), array.union(0, array, 1));
+        for (int j = 0; j < counter1.getNumberOfRegisters(); j++){
+            assertEquals(counter1.getRegister(j), array.getRegister(0, j));
+        }
+        assertEquals(counter1.getSize(), array.getSize(0));    // the maintained register sum should match a full scan.
+
+        assertFalse("Union with itself should not change", array.union(0, array, 0));
+    }
+
+    @Test
+    public void testUnionIsRegisterMaximum(){
+        final int NUMBER_OF_BITS = 7;
+        final int COUNTERS = 50;
+        HLLCounterArray array = new HLLCounterArray(COUNTERS, NUMBER_OF_BITS);
+
+        for (int item = 0; item < 20000; item++){
+            array.add(item % COUNTERS, item);
+        }
+
+        for (int counter = 1; counter < COUNTERS; counter++){
+            int[] expected = new int[array.getNumberOfRegisters()];
+            boolean expectChange = false;
+            for (int j = 0; j < expected.length; j++){
+                int val = array.getRegister(0, j);
+                int otherVal = array.getRegister(counter, j);
+                expected[j] = Math.max(val, otherVal);
+                expectChange = expectChange || otherVal > val;
+            }
+
+            assertEquals(expectChange, array.union(0, array, counter));
+            for (int j = 0; j < expected.length; j++){
+                assertEquals(expected[j], array.getRegister(0, j));
+            }
+        }
+    }
+
+    @Test
+    public void testCopy(){
+        final int NUMBER_OF_BITS = 5;
+        HLLCounterArray array = new HLLCounterArray(2, NUMBER_OF_BITS);
+        HLLCounterArray copy = new HLLCounterArray(2, NUMBER_OF_BITS);
+
+        array.add(1, 27);               // index 0, 0 leading zeroes.
+        copy.copy(1, array);
+        assertEquals(1, copy.getRegister(1, 0));
+
+        assertTrue(copy.add(1, 38));    // index 0, 1 leading zero.
+        assertEquals(2, copy.getRegister(1, 0));
+        assertEquals(1, array.getRegister(1, 0));   // this should not have influenced the other array.
+    }
+
+    @Test
+    public void testSizeMatchesHLLCounter(){
+        final int NUMBER_OF_BITS = 6;
+        HLLCounterArray array = new HLLCounterArray(1, NUMBER_OF_BITS);
+        HLLCounter reference = new HLLCounter(NUMBER_OF_BITS);
+
+        for (int item = 0; item < 5000; item++){
+            array.add(0, item);
+            reference.add(item);
+            if (item % 97 == 0){
+                assertEquals(reference.getSize(), array.getSize(0));
+            }
+        }
+    }
+
+    @Test
+    public void testRegisterWidths(){
+        final int NUMBER_OF_BITS = 4;
+        final int COUNTERS = 20;
+        for (int width = HLLCounterArray.MIN_REGISTER_WIDTH; width <= HLLCounterArray.MAX_REGISTER_WIDTH; width++){
+            HLLCounterArray array = new HLLCounterArray(COUNTERS, NUMBER_OF_BITS, new Murmur3Hash32(), width);
+            HLLCounter[] reference = new HLLCounter[COUNTERS];
+            for (int counter = 0; counter < COUNTERS; counter++){
+                reference[counter] = new HLLCounter(NUMBER_OF_BITS);
+                for (int item = 0; item < 50 * counter; item++){
+                    array.add(counter, item * COUNTERS + counter);
+                    reference[counter].add(item * COUNTERS + counter);
+                }
+            }
+            for (int counter = 1; counter < COUNTERS; counter++){
+                array.union(0, array, counter);
+                reference[0].union(reference[counter]);
+            }
+
+            // Registers saturate at 2^width - 1.
+            int maxValue = (1 << width) - 1;
+            for (int counter = 0; counter < COUNTERS; counter++){
+                for (int j = 0; j < array.getNumberOfRegisters(); j++){
+                    assertEquals(Math.min(reference[counter].getRegister(j), maxValue), array.getRegister(counter, j));
+                }
+            }
+            assertEquals(COUNTERS * (long) Math.ceil(16.0 / (64 / width)), array.getNumberOfWords());
+        }
+    }
+
+    @Test
+    public void testSaturation(){
+        final int NUMBER_OF_BITS = 4;
+        HLLCounterArray array = new HLLCounterArray(2, NUMBER_OF_BITS, new Murmur3Hash32(), 4);
+        HLLCounter reference = new HLLCounter(NUMBER_OF_BITS);
+
+        // Find an item whose register value does not fit in 4 bits.
+        int item = 0;
+        while (reference.getLeadingZeroes(NodeHasher.hash(item)) + 1 <= 15) item++;
+        reference.add(item);
+        int index = reference.getRegisterIndex(NodeHasher.hash(item));
+
+        assertTrue(array.add(1, item));
+        assertEquals(15, array.getRegister(1, index));
+        assertFalse("A saturated register can not rise", array.add(1, item));
+        assertTrue(array.union(0, array, 1));
+        assertEquals(15, array.getRegister(0, index));
+    }
+
+    @Test
+    public void testGetRegisterWidth(){
+        assertEquals(4, HLLCounterArray.getRegisterWidth(1000, 32));
+        assertEquals(5, HLLCounterArray.getRegisterWidth(1000000, 32));
+        assertEquals(6, HLLCounterArray.getRegisterWidth(1L << 30, 32));
+        assertEquals(6, HLLCounterArray.getRegisterWidth(1L << 40, 64));
+    }
+
+    @Test
+    public void testFoldingMatchesLowerPrecision(){
+        final int NUMBER_OF_BITS = 8;
+        HLLCounterArray folded = new HLLCounterArray(1, NUMBER_OF_BITS);
+        HLLCounterArray[] direct = new HLLCounterArray[4];
+        for (int i = 0; i < direct.length; i++) direct[i] = new HLLCounterArray(1, NUMBER_OF_BITS - i);
+
+        long[] sizes = new long[direct.length];
+        int[] registers = new int[folded.getNumberOfRegisters()];
+        for (int item = 0; item < 20000; item++){
+            folded.add(0, item, 5);
+            for (HLLCounterArray array : direct) array.add(0, item, 5);
+            if (item % 1000 != 0) continue;
+
+            folded.getFoldedSizes(0, sizes, registers);
+            for (int i = 0; i < direct.length; i++){
+                assertEquals("Size with " + (NUMBER_OF_BITS - i) + " bits", direct[i].getSize(0), sizes[i]);
+            }
+        }
+    }
+}
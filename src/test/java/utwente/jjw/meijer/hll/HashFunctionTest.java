@@ -0,0 +1,77 @@
+package utwente.jjw.meijer.hll;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import com.google.common.hash.Hashing;
+
+public class HashFunctionTest {
+
+    @Test
+    public void testMurmur3MatchesGuava(){
+        HashFunction murmur = new Murmur3Hash32();
+        for (int seed = 0; seed < 5; seed++){
+            for (int item = -1000; item < 1000; item++){
+                int expected = Hashing.murmur3_32(seed).hashInt(item).asInt();
+                assertEquals(expected, Murmur3Hash32.hash32(item, seed));
+                assertEquals(expected, (int) (murmur.hash(item, seed) >>> 32));
+            }
+        }
+    }
+
+    @Test
+    public void test64BitHashesAreSpread(){
+        final int NUMBER_OF_BITS = 6;
+        final int ITEMS = 100000;
+        for (HashFunction function : new HashFunction[] {new Murmur3Fmix64Hash(), new XXHash64()}){
+            assertEquals(64, function.getWidth());
+            HashSet<Long> hashes = new HashSet<>();
+            int[] registerItems = new int[1 << NUMBER_OF_BITS];
+            for (int item = 0; item < ITEMS; item++){
+                long hash = function.hash(item, 7);
+                hashes.add(hash);
+                registerItems[(int) (hash >>> (64 - NUMBER_OF_BITS))]++;
+            }
+            assertEquals("64-bit hashes of different items should not collide", ITEMS, hashes.size());
+            for (int items : registerItems){
+                assertEquals((double) ITEMS / registerItems.length, items, 0.1 * ITEMS / registerItems.length);
+            }
+            assertTrue("Seeds should give different hashes", function.hash(1, 7) != function.hash(1, 8));
+        }
+    }
+
+    @Test
+    public void testLeadingZeroesOfEitherWidth(){
+        final int NUMBER_OF_BITS = 5;
+        HLLCounter counter = new HLLCounter(NUMBER_OF_BITS);
+        for (int item = 0; item < 1000; item++){
+            int hash = NodeHasher.hash(item);
+            long wideHash = new Murmur3Hash32().hash(item, 0);
+            assertEquals(counter.getRegisterIndex(hash), counter.getRegisterIndex(wideHash));
+            assertEquals(counter.getLeadingZeroes(hash), counter.getLeadingZeroes(wideHash, 32));
+        }
+
+        // Only the bits after the index count, up to the width of the hash.
+        assertEquals(3, counter.getLeadingZeroes(0x0400000000000000L >>> 3, 64));
+        assertEquals(32, counter.getLeadingZeroes(0L, 32));
+        assertEquals(64, counter.getLeadingZeroes(0L, 64));
+    }
+
+    @Test
+    public void test64BitEstimateIsNotCapped(){
+        // 16 registers that all saw 40 leading zeroes, an estimate of about 10^13, beyond 2^32.
+        final int p = 16;
+        double registerSum = p * Math.scalb(1.0, -40);
+        double E = HLLCounter.estimateE(registerSum, p);
+        assertTrue(E > Math.pow(2, 32));
+        assertEquals((long) E, HLLCounter.estimateSize(registerSum, 0, p, 64));
+
+        HLLCounterArray array = new HLLCounterArray(1, 8, new XXHash64());
+        for (int item = 0; item < 50000; item++) array.add(0, item);
+        assertEquals(50000, array.getSize(0), 0.2 * 50000);
+    }
+}
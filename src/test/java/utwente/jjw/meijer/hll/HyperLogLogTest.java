@@ -3,6 +3,9 @@ package utwente.jjw.meijer.hll;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
 import org.junit.Test;
 /**
  * All tests assume the google murmurhash-32 function.
@@ -106,6 +109,49 @@ public class HyperLogLogTest {
 
     }
 
+    @Test
+    public void testSizeMatchesBigDecimalEstimator(){
+        for (int numberOfBits = 4; numberOfBits <= 8; numberOfBits++){
+            HLLCounter counter = new HLLCounter(numberOfBits);
+            assertEquals(referenceSize(counter), counter.getSize());
+
+            for (int item = 0; item < 5000; item++){
+                counter.add(item);
+                assertEquals("Estimates differ after adding item " + item, referenceSize(counter), counter.getSize());
+            }
+        }
+    }
+
+    /**
+     * The original estimator of HLLCounter, which computes the harmonic mean with BigDecimals.
+     * Kept as a reference for the double precision estimator.
+     */
+    private static long referenceSize(HLLCounter counter){
+        int p = counter.getNumberOfRegisters();
+        int maxScale = (int) (Math.log10(Math.pow(2, p)) + 4);
+
+        BigDecimal registersum = new BigDecimal(0);
+        BigDecimal one = new BigDecimal(1);
+        BigDecimal two = new BigDecimal(2);
+        int emptyRegisters = 0;
+        for (int i = 0; i < p; i++){
+            int regval = counter.getRegister(i);
+            if (regval == 0) emptyRegisters++;
+            registersum = registersum.add(one.divide(two.pow(regval), maxScale, RoundingMode.HALF_UP));
+        }
+        BigDecimal Z = one.divide(registersum, maxScale, RoundingMode.HALF_UP);
+        double E = new BigDecimal(HLLCounter.calculateAm(p)).multiply(new BigDecimal(p).pow(2)).multiply(Z).doubleValue();
+
+        if (E < (5.0 / 2) * p){
+            if (emptyRegisters == 0) return (long) E;
+            return (long) (p * Math.log((double) p / emptyRegisters));
+        } else if (E < (1.0 / 30) * Math.pow(2, 32)){
+            return (long) E;
+        } else {
+            return (long) (-1.0 * Math.pow(2, 32) * Math.log(1 - (E / Math.pow(2, 32))));
+        }
+    }
+
     public static void main(String[] args){
         for (int i = 0; i < 100; i++){
             int hash = NodeHasher.hash(i);
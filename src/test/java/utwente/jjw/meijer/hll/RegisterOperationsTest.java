@@ -0,0 +1,40 @@
+package utwente.jjw.meijer.hll;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the selected register operations, vectorized when the JVM allows it, against the scalar ones.
+ */
+public class RegisterOperationsTest {
+
+    @Test
+    public void testSelectedMatchesScalar(){
+        RegisterOperations scalar = new ScalarRegisterOperations();
+        RegisterOperations selected = RegisterOperations.select();
+        System.out.printf("Register operations: %s\n", selected.getClass().getSimpleName());
+        Random random = new Random(3);
+
+        // Lengths below, at and above the vector lengths, also with a scalar tail.
+        for (int length : new int[] {1, 16, 17, 32, 64, 100, 128, 4096}){
+            for (int round = 0; round < 20; round++){
+                byte[] x = new byte[length];
+                byte[] y = new byte[length];
+                for (int i = 0; i < length; i++){
+                    x[i] = (byte) (random.nextInt(4) == 0 ? 0 : random.nextInt(20));
+                    y[i] = (byte) (round % 2 == 0 ? random.nextInt(20) : random.nextInt(Math.max(1, x[i])));
+                }
+                byte[] expected = x.clone();
+                byte[] actual = x.clone();
+
+                assertEquals(scalar.countZeroes(x), selected.countZeroes(x));
+                assertEquals(scalar.max(expected, y), selected.max(actual, y));
+                assertArrayEquals(expected, actual);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package utwente.jjw.meijer.hyperball;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import it.unimi.dsi.webgraph.ArrayListMutableGraph;
+import it.unimi.dsi.webgraph.ImmutableGraph;
+
+public class BfsTraversalTest {
+
+    /**
+     * Asserts that both distributions contain the same distances with the same number of pairs.
+     */
+    private static void assertSameDistribution(DistanceDistribution expected, DistanceDistribution actual){
+        Iterator<Integer> keyIter = expected.iterator();
+        while (keyIter.hasNext()){
+            int distance = keyIter.next();
+            assertEquals("Number of pairs at distance " + distance, expected.getValue(distance), actual.getValue(distance));
+        }
+        assertEquals(expected.getTotal(), actual.getTotal());
+    }
+
+    @Test
+    public void testMultiSourceBfsMatchesBfs(){
+        // Not a multiple of 64 nodes, so the last batch is partly empty.
+        ImmutableGraph graph = Graphs.getErdosRenyiGraph(700, 0.003, 23L);
+        DistanceDistribution expected = new BfsTraversal(graph).getDistanceDistribution();
+
+        assertSameDistribution(expected, new MultiSourceBfs(graph, 1).getDistanceDistribution());
+        MultiSourceBfs wide = new MultiSourceBfs(graph, 3);
+        wide.setSourcesPerBatch(256);
+        assertSameDistribution(expected, wide.getDistanceDistribution());
+    }
+
+    @Test
+    public void testParallelBfsMatchesMultiSourceBfs(){
+        ImmutableGraph graph = Graphs.getErdosRenyiGraph(500, 0.004, 29L);
+        DistanceDistribution expected = new MultiSourceBfs(graph, 1).getDistanceDistribution();
+        assertSameDistribution(expected, new BfsTraversal(graph, 3).getDistanceDistribution());
+    }
+
+    @Test
+    public void testReachableNodesInOrderOfDistance(){
+        // 0 -> 1 -> 2 -> 3 and 0 -> 4 -> 3, node 5 only reaches itself.
+        ImmutableGraph graph = new ArrayListMutableGraph(6, new int[][] {{0, 1}, {1, 2}, {2, 3}, {0, 4}, {4, 3}}).immutableView();
+        BfsTraversal bfs = new BfsTraversal(graph);
+        assertArrayEquals(new Integer[] {0, 1, 4, 2, 3}, bfs.getReachableNodes(0));
+        assertArrayEquals(new Integer[] {2, 3}, bfs.getReachableNodes(2));
+        assertArrayEquals(new Integer[] {5}, bfs.getReachableNodes(5));
+
+        DistanceDistribution distribution = bfs.getDistanceDistribution();
+        assertEquals(5, distribution.getValue(1));
+        assertEquals(3, distribution.getValue(2));
+        assertEquals(0, distribution.getValue(3));
+    }
+
+    @Test
+    public void testDirectionOptimizingMatchesTopDown(){
+        // Dense enough that the middle levels are expanded bottom-up.
+        ImmutableGraph graph = Graphs.getErdosRenyiGraph(400, 0.02, 41L);
+        BfsTraversal topDown = new BfsTraversal(graph);
+        DistanceDistribution expected = topDown.getDistanceDistribution();
+
+        for (int threads = 1; threads <= 3; threads += 2){
+            BfsTraversal directionOptimizing = new BfsTraversal(graph, threads);
+            directionOptimizing.setTransposeGraph(Graphs.getTransposeGraph(graph));
+            assertSameDistribution(expected, directionOptimizing.getDistanceDistribution());
+
+            // The same nodes, in an order that may differ within a distance.
+            for (int node = 0; node < 20; node++){
+                Integer[] reachable = topDown.getReachableNodes(node);
+                Integer[] actual = directionOptimizing.getReachableNodes(node);
+                assertEquals(reachable[0], actual[0]);
+                Arrays.sort(reachable);
+                Arrays.sort(actual);
+                assertArrayEquals(reachable, actual);
+            }
+        }
+    }
+}
@@ -1,15 +1,28 @@
 package utwente.jjw.meijer.hyperball;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import it.unimi.dsi.webgraph.BVGraph;
 import it.unimi.dsi.webgraph.ImmutableGraph;
 import it.unimi.dsi.webgraph.NodeIterator;
+import utwente.jjw.meijer.hll.SketchType;
 
 public class GraphsTest {
 
-
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
 
     @Test 
     public void testCompleteGraph(){
@@ -32,4 +45,79 @@ public class GraphsTest {
         // Check that the loop has been run 'nodes' times.
         assertEquals(nodes, count);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testRelabelingKeepsDistances(){
+        ImmutableGraph graph = Graphs.getErdosRenyiGraph(300, 0.01, 11L);
+        DistanceDistribution expected = new BfsTraversal(graph).getDistanceDistribution();
+
+        for (NodeOrdering ordering : NodeOrdering.values()){
+            int[] permutation = ordering.getPermutation(graph);
+            int[] sorted = permutation.clone();
+            Arrays.sort(sorted);
+            for (int node = 0; node < sorted.length; node++) assertEquals(node, sorted[node]);
+
+            DistanceDistribution relabeled = new BfsTraversal(Graphs.getRelabeledGraph(graph, permutation)).getDistanceDistribution();
+            assertEquals(expected.getTotal(), relabeled.getTotal());
+            for (int distance = 1; distance < graph.numNodes(); distance++){
+                assertEquals(expected.getValue(distance), relabeled.getValue(distance));
+            }
+        }
+    }
+
+    @Test
+    public void testInterruptedTransposeIsNotReused() throws IOException{
+        ImmutableGraph graph = Graphs.getErdosRenyiGraph(300, 0.01, 17L);
+        File directory = temporaryFolder.newFolder();
+        String basename = new File(directory, "er").getPath();
+        BVGraph.store(graph, basename);
+
+        // What a store interrupted while writing the graph leaves behind.
+        String transposeBasename = basename + Graphs.TRANSPOSE_SUFFIX;
+        Files.write(new File(transposeBasename + ".tmp" + BVGraph.GRAPH_EXTENSION).toPath(), new byte[] {1, 2, 3});
+
+        BVGraph transpose = Graphs.loadTransposeGraph(Graphs.loadBVGraphFromFile(basename));
+        assertEquals(graph.numArcs(), transpose.numArcs());
+        ImmutableGraph expected = Graphs.getTransposeGraph(graph);
+        for (int node = 0; node < graph.numNodes(); node++){
+            assertArrayEquals(Arrays.copyOf(expected.successorArray(node), expected.outdegree(node)),
+                Arrays.copyOf(transpose.successorArray(node), transpose.outdegree(node)));
+        }
+        for (String name : directory.list()) assertFalse("Temporary file " + name + " is left", name.contains(".tmp"));
+    }
+
+    @Test
+    public void testRelabeledGraphIsStoredWithPermutation() throws IOException{
+        ImmutableGraph graph = Graphs.getErdosRenyiGraph(300, 0.01, 13L);
+        File directory = temporaryFolder.newFolder();
+        String basename = new File(directory, "er").getPath();
+        BVGraph.store(graph, basename);
+        BVGraph original = Graphs.loadBVGraphFromFile(basename);
+
+        BVGraph relabeled = Graphs.loadRelabeledGraph(original, NodeOrdering.BFS);
+        assertTrue(new File(basename + NodeOrdering.BFS.getSuffix() + BVGraph.GRAPH_EXTENSION).exists());
+        for (String name : directory.list()) assertFalse("Temporary file " + name + " is left", name.contains(".tmp"));
+        int[] permutation = Graphs.loadPermutation(relabeled);
+        assertArrayEquals(NodeOrdering.BFS.getPermutation(original), permutation);
+        for (int node = 0; node < graph.numNodes(); node++){
+            int[] successors = Arrays.copyOf(graph.successorArray(node), graph.outdegree(node));
+            for (int i = 0; i < successors.length; i++) successors[i] = permutation[successors[i]];
+            Arrays.sort(successors);
+            int[] relabeledSuccessors = Arrays.copyOf(relabeled.successorArray(permutation[node]), relabeled.outdegree(permutation[node]));
+            assertArrayEquals(successors, relabeledSuccessors);
+        }
+
+        // Exact centralities of the relabeled graph, mapped back, are those of the original graph.
+        HyperBall expected = new HyperBall(original, 5);
+        expected.setSketchType(SketchType.BITSET);
+        expected.setComputeCentralities(true);
+        expected.getDistanceDistribution();
+        HyperBall actual = new HyperBall(Graphs.loadRelabeledGraph(original, NodeOrdering.BFS), 5);
+        actual.setSketchType(SketchType.BITSET);
+        actual.setComputeCentralities(true);
+        actual.getDistanceDistribution();
+        GeometricCentralities mapped = new GeometricCentralities(actual.getCentralities(), permutation);
+        assertArrayEquals(expected.getCentralities().getHarmonic(), mapped.getHarmonic(), 1e-9);
+        assertArrayEquals(expected.getCentralities().getReachable(), mapped.getReachable(), 1e-9);
+    }
+}
@@ -0,0 +1,409 @@
+package utwente.jjw.meijer.hyperball;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import it.unimi.dsi.webgraph.ArrayListMutableGraph;
+import it.unimi.dsi.webgraph.BVGraph;
+import it.unimi.dsi.webgraph.ImmutableGraph;
+import utwente.jjw.meijer.hll.HLLCounterArray;
+import utwente.jjw.meijer.hll.Murmur3Hash32;
+import utwente.jjw.meijer.hll.SketchType;
+
+public class HyperBallTest {
+
+    private static final int NUMBER_OF_BITS = 5;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Asserts that both distributions contain the same distances with the same number of pairs.
+     */
+    private static void assertSameDistribution(DistanceDistribution expected, DistanceDistribution actual){
+        Iterator<Integer> keyIter = expected.iterator();
+        int distances = 0;
+        while (keyIter.hasNext()){
+            int distance = keyIter.next();
+            assertEquals("Number of pairs at distance " + distance, expected.getValue(distance), actual.getValue(distance));
+            distances++;
+        }
+
+        int actualDistances = 0;
+        keyIter = actual.iterator();
+        while (keyIter.hasNext()){
+            keyIter.next();
+            actualDistances++;
+        }
+        assertEquals(distances, actualDistances);
+    }
+
+    @Test
+    public void testParallelMatchesSequential(){
+        ImmutableGraph graph = Graphs.getErdosRenyiGraph(2000, 0.002, 42L);
+
+        DistanceDistribution sequential = new HyperBall(graph, NUMBER_OF_BITS).getDistanceDistribution();
+        DistanceDistribution parallel = new HyperBall(graph, NUMBER_OF_BITS, 4).getDistanceDistribution();
+
+        assertSameDistribution(sequential, parallel);
+    }
+
+    @Test
+    public void testMappedCountersMatchHeap() throws IOException{
+        ImmutableGraph graph = Graphs.getErdosRenyiGraph(1000, 0.003, 11L);
+        File directory = temporaryFolder.newFolder();
+
+        DistanceDistribution heap = new HyperBall(graph, NUMBER_OF_BITS).getDistanceDistribution();
+        HyperBall mappedBall = new HyperBall(graph, NUMBER_OF_BITS, 2);
+        mappedBall.setCounterDirectory(directory);
+
+        assertSameDistribution(heap, mappedBall.getDistanceDistribution());
+        assertEquals("Counter files should be removed after the run", 0, directory.list().length);
+    }
+
+    @Test
+    public void testStaleCounterFilesAreCleared() throws IOException{
+        ImmutableGraph graph = Graphs.getErdosRenyiGraph(1000, 0.003, 11L);
+        File directory = temporaryFolder.newFolder();
+        DistanceDistribution heap = new HyperBall(graph, NUMBER_OF_BITS).getDistanceDistribution();
+
+        // Files of a crashed run, full of non-zero registers and sums.
+        byte[] garbage = new byte[1 << 20];
+        Arrays.fill(garbage, (byte) 0x55);
+        for (String name : new String[] {"counters.bin", "counters.bin.sums", "new-counters.bin", "new-counters.bin.sums"}){
+            Files.write(new File(directory, name).toPath(), garbage);
+        }
+
+        for (int run = 0; run < 2; run++){
+            HyperBall mappedBall = new HyperBall(graph, NUMBER_OF_BITS);
+            mappedBall.setCounterDirectory(directory);
+            assertSameDistribution(heap, mappedBall.getDistanceDistribution());
+        }
+    }
+
+    @Test
+    public void testResumeFromCheckpoint() throws IOException{
+        ImmutableGraph graph = Graphs.getErdosRenyiGraph(1000, 0.003, 13L);
+        HyperBall uninterrupted = new HyperBall(graph, NUMBER_OF_BITS);
+        DistanceDistribution expected = uninterrupted.getDistanceDistribution();
+
+        // Write the checkpoint a run would have written after its first iteration.
+        int width = HLLCounterArray.getRegisterWidth(graph.numNodes(), 32);   // as chosen by HyperBall.
+        HLLCounterArray before = new HLLCounterArray(graph.numNodes(), NUMBER_OF_BITS, new Murmur3Hash32(), width);
+        HLLCounterArray after = new HLLCounterArray(graph.numNodes(), NUMBER_OF_BITS, new Murmur3Hash32(), width);
+        long pairs = 0;
+        for (int node = 0; node < graph.numNodes(); node++){
+            before.add(node, node);
+            after.add(node, node);
+            for (int successor : graph.successorArray(node)){
+                after.add(node, successor);
+            }
+            pairs += after.getSize(node) - before.getSize(node);
+        }
+        DistanceDistribution firstIteration = new DistanceDistribution();
+        firstIteration.setNumberOfPairs(1, pairs);
+
+        File directory = temporaryFolder.newFolder();
+        try (Checkpoints checkpoints = new Checkpoints(directory, graph)){
+            checkpoints.writeInBackground(1, after, new int[] {0}, new DistanceDistribution[] {firstIteration}, null);
+        }
+
+        HyperBall resumed = new HyperBall(graph, NUMBER_OF_BITS, 2);
+        resumed.setCheckpointDirectory(directory);
+        assertSameDistribution(expected, resumed.getDistanceDistribution());
+        assertEquals("The first iteration should have been skipped", uninterrupted.getNodesTouched().size() - 1, resumed.getNodesTouched().size());
+        assertEquals("Checkpoints should be removed after the run", 0, directory.list().length);
+    }
+
+    @Test
+    public void testCheckpointOfOtherGraphIsSkipped() throws IOException{
+        ImmutableGraph graph = Graphs.getErdosRenyiGraph(1000, 0.003, 13L);
+        ImmutableGraph other = Graphs.getErdosRenyiGraph(1000, 0.003, 14L);
+        DistanceDistribution expected = new HyperBall(graph, NUMBER_OF_BITS).getDistanceDistribution();
+
+        // A checkpoint of a graph with as many nodes, written with the counters this run would use.
+        int width = HLLCounterArray.getRegisterWidth(other.numNodes(), 32);
+        HLLCounterArray counters = new HLLCounterArray(other.numNodes(), NUMBER_OF_BITS, new Murmur3Hash32(), width);
+        for (int node = 0; node < other.numNodes(); node++) counters.add(node, node);
+        DistanceDistribution firstIteration = new DistanceDistribution();
+        firstIteration.setNumberOfPairs(1, 1);
+        File directory = temporaryFolder.newFolder();
+        try (Checkpoints checkpoints = new Checkpoints(directory, other)){
+            checkpoints.writeInBackground(1, counters, new int[] {0}, new DistanceDistribution[] {firstIteration}, null);
+        }
+
+        HyperBall ball = new HyperBall(graph, NUMBER_OF_BITS);
+        ball.setCheckpointDirectory(directory);
+        assertSameDistribution(expected, ball.getDistanceDistribution());
+    }
+
+    @Test
+    public void testSystolicMatchesFullSweep(){
+        ImmutableGraph graph = Graphs.getErdosRenyiGraph(2000, 0.001, 7L);
+
+        HyperBall full = new HyperBall(graph, NUMBER_OF_BITS);
+        DistanceDistribution expected = full.getDistanceDistribution();
+
+        for (int threads = 1; threads <= 3; threads += 2){
+            HyperBall systolic = new HyperBall(graph, NUMBER_OF_BITS, threads);
+            systolic.setTransposeGraph(Graphs.getTransposeGraph(graph));
+            assertSameDistribution(expected, systolic.getDistanceDistribution());
+
+            // The first iteration visits every node, the last ones only a few.
+            List<Long> touched = systolic.getNodesTouched();
+            assertEquals(full.getNodesTouched().size(), touched.size());
+            assertEquals(graph.numNodes(), (long) touched.get(0));
+            assertTrue(touched.get(touched.size() - 1) < graph.numNodes());
+        }
+    }
+
+    @Test
+    public void testOfflineGraphMatchesInMemory() throws IOException{
+        ImmutableGraph graph = Graphs.getErdosRenyiGraph(2000, 0.002, 17L);
+        String basename = new File(temporaryFolder.newFolder(), "er").getPath();
+        BVGraph.store(graph, basename);
+        DistanceDistribution expected = new HyperBall(graph, NUMBER_OF_BITS).getDistanceDistribution();
+
+        for (int threads = 1; threads <= 3; threads += 2){
+            ImmutableGraph offline = Graphs.loadOfflineBVGraphFromFile(basename);
+            assertFalse(offline.randomAccess());
+            assertSameDistribution(expected, new HyperBall(offline, NUMBER_OF_BITS, threads).getDistanceDistribution());
+            assertSameDistribution(expected, new HyperBall(Graphs.loadMappedBVGraphFromFile(basename), NUMBER_OF_BITS, threads).getDistanceDistribution());
+        }
+    }
+
+    @Test
+    public void testRegisterWidthsAgree(){
+        ImmutableGraph graph = Graphs.getErdosRenyiGraph(2000, 0.002, 29L);
+        HyperBall wide = new HyperBall(graph, NUMBER_OF_BITS);
+        wide.setRegisterWidth(8);
+        DistanceDistribution expected = wide.getDistanceDistribution();
+
+        // None of the registers saturate at these widths for 2000 nodes.
+        for (int width = 5; width <= 6; width++){
+            HyperBall packed = new HyperBall(graph, NUMBER_OF_BITS, 2);
+            packed.setRegisterWidth(width);
+            assertSameDistribution(expected, packed.getDistanceDistribution());
+        }
+    }
+
+    @Test
+    public void testBitsetSketchesMatchBfs(){
+        ImmutableGraph graph = Graphs.getErdosRenyiGraph(500, 0.005, 31L);
+        DistanceDistribution expected = new BfsTraversal(graph).getDistanceDistribution();
+
+        HyperBall exact = new HyperBall(graph, NUMBER_OF_BITS, 2);
+        exact.setSketchType(SketchType.BITSET);
+        assertSameDistribution(expected, exact.getDistanceDistribution());
+
+        HyperBall systolic = new HyperBall(graph, NUMBER_OF_BITS);
+        systolic.setSketchType(SketchType.BITSET);
+        systolic.setTransposeGraph(Graphs.getTransposeGraph(graph));
+        assertSameDistribution(expected, systolic.getDistanceDistribution());
+    }
+
+    @Test
+    public void testCacheBlockingMatchesUnblocked(){
+        ImmutableGraph graph = Graphs.getErdosRenyiGraph(1000, 0.004, 37L);
+        for (boolean systolic : new boolean[]{false, true}){
+            HyperBall unblocked = new HyperBall(graph, NUMBER_OF_BITS);
+            unblocked.setNumberOfRuns(3);
+            HyperBall blocked = new HyperBall(graph, NUMBER_OF_BITS, 2);
+            blocked.setNumberOfRuns(3);
+            blocked.setCacheSize(1);        // the smallest tiles, of 64 nodes.
+            if (systolic) blocked.setTransposeGraph(Graphs.getTransposeGraph(graph));
+            assertSameDistribution(unblocked.getDistanceDistribution(), blocked.getDistanceDistribution());
+        }
+    }
+
+    @Test
+    public void testPipelinedDecodingMatchesUnpipelined() throws IOException{
+        ImmutableGraph graph = Graphs.getErdosRenyiGraph(2000, 0.002, 19L);
+        String basename = new File(temporaryFolder.newFolder(), "er").getPath();
+        BVGraph.store(graph, basename);
+        DistanceDistribution expected = new HyperBall(graph, NUMBER_OF_BITS).getDistanceDistribution();
+
+        HyperBall offline = new HyperBall(Graphs.loadOfflineBVGraphFromFile(basename), NUMBER_OF_BITS);
+        offline.setDecoderThreads(2);
+        assertSameDistribution(expected, offline.getDistanceDistribution());
+        assertEquals(offline.getNodesTouched().size(), offline.getDecoderUtilisation().size());
+        for (double utilisation : offline.getUnionUtilisation()) assertTrue(utilisation >= 0 && utilisation <= 1);
+
+        HyperBall systolic = new HyperBall(graph, NUMBER_OF_BITS, 2);
+        systolic.setDecoderThreads(3);
+        systolic.setTransposeGraph(Graphs.getTransposeGraph(graph));
+        assertSameDistribution(expected, systolic.getDistanceDistribution());
+    }
+
+    @Test
+    public void testTailCutSketchesEstimate(){
+        ImmutableGraph graph = Graphs.getErdosRenyiGraph(2000, 0.002, 37L);
+        DistanceDistribution expected = new HyperBall(graph, 8).getDistanceDistribution();
+
+        HyperBall tailCut = new HyperBall(graph, 8, 2);
+        tailCut.setSketchType(SketchType.TAILCUT_HYPERLOGLOG);
+        DistanceDistribution actual = tailCut.getDistanceDistribution();
+        assertEquals(expected.getMean(), actual.getMean(), 0.02 * expected.getMean());
+        assertEquals(expected.getTotal(), actual.getTotal(), 0.02 * expected.getTotal());
+    }
+
+    @Test
+    public void testFoldedPrecisionsMatchSeparateRuns(){
+        ImmutableGraph graph = Graphs.getErdosRenyiGraph(1000, 0.003, 41L);
+        HyperBall folded = new HyperBall(graph, 7, 2);
+        folded.setMinimumNumberOfBits(4);
+        DistanceDistribution expected = new HyperBall(graph, 7).getDistanceDistribution();
+        assertSameDistribution(expected, folded.getDistanceDistribution());
+
+        for (int bits = 4; bits < 7; bits++){
+            DistanceDistribution separate = new HyperBall(graph, bits).getDistanceDistribution();
+            assertSameDistribution(separate, folded.getDistanceDistributionEstimate(bits).getMeanDistribution());
+        }
+    }
+
+    @Test
+    public void testCentralitiesOfPath(){
+        // 0 -> 1 -> ... -> 9, few nodes and many registers so the counters are practically exact.
+        final int NODES = 10;
+        ImmutableGraph path = new ArrayListMutableGraph(NODES, pathArcs(NODES)).immutableView();
+        HyperBall ball = new HyperBall(path, 12);
+        ball.setComputeCentralities(true);
+        ball.getDistanceDistribution();
+        GeometricCentralities centralities = ball.getCentralities();
+
+        for (int node = 0; node < NODES; node++){
+            int reachable = NODES - node;
+            double harmonic = 0;
+            double sumOfDistances = 0;
+            for (int distance = 1; distance < reachable; distance++){
+                harmonic += 1.0 / distance;
+                sumOfDistances += distance;
+            }
+            assertEquals(reachable, centralities.getReachable()[node], 0.5);
+            assertEquals(harmonic, centralities.getHarmonic()[node], 0.1);
+            assertEquals(sumOfDistances, centralities.getSumOfDistances()[node], 0.5);
+            assertEquals(sumOfDistances == 0 ? 1 : reachable * reachable / sumOfDistances, centralities.getLin()[node], 0.1);
+        }
+        assertEquals(0, centralities.getCloseness()[NODES - 1], 0);
+    }
+
+    @Test
+    public void testParallelCentralitiesMatchSequential(){
+        ImmutableGraph graph = Graphs.getErdosRenyiGraph(1000, 0.003, 5L);
+
+        HyperBall sequential = new HyperBall(graph, NUMBER_OF_BITS);
+        sequential.setComputeCentralities(true);
+        DistanceDistribution dist = sequential.getDistanceDistribution();
+        HyperBall parallel = new HyperBall(graph, NUMBER_OF_BITS, 3);
+        parallel.setComputeCentralities(true);
+        parallel.getDistanceDistribution();
+
+        assertArrayEquals(sequential.getCentralities().getHarmonic(), parallel.getCentralities().getHarmonic(), 0);
+        assertArrayEquals(sequential.getCentralities().getCloseness(), parallel.getCentralities().getCloseness(), 0);
+
+        // Summed over all nodes, the distances are those of the distance distribution.
+        double expectedSum = 0;
+        Iterator<Integer> keyIter = dist.iterator();
+        while (keyIter.hasNext()){
+            int distance = keyIter.next();
+            expectedSum += (double) distance * dist.getValue(distance);
+        }
+        double sum = 0;
+        for (double nodeSum : sequential.getCentralities().getSumOfDistances()) sum += nodeSum;
+        assertEquals(expectedSum, sum, 1e-6 * expectedSum);
+    }
+
+    @Test
+    public void testStopPolicy(){
+        final int NODES = 40;
+        ImmutableGraph path = new ArrayListMutableGraph(NODES, pathArcs(NODES)).immutableView();
+        HyperBall converged = new HyperBall(path, NUMBER_OF_BITS);
+        converged.getDistanceDistribution();
+        assertTrue("A path should need more than the old cap of 30 iterations", converged.getNodesTouched().size() > 31);
+
+        StopPolicy policy = new StopPolicy();
+        policy.setMaxIterations(5);
+        HyperBall capped = new HyperBall(path, NUMBER_OF_BITS);
+        capped.setStopPolicy(policy);
+        DistanceDistribution dist = capped.getDistanceDistribution();
+        assertEquals(5, capped.getNodesTouched().size());
+        assertEquals(0, dist.getValue(6));
+
+        // The last iterations on an ER graph add far less than 1% to the neighbourhood function.
+        ImmutableGraph graph = Graphs.getErdosRenyiGraph(2000, 0.002, 42L);
+        HyperBall full = new HyperBall(graph, NUMBER_OF_BITS);
+        full.getDistanceDistribution();
+        policy = new StopPolicy();
+        policy.setMinRelativeIncrease(0.01);
+        HyperBall relative = new HyperBall(graph, NUMBER_OF_BITS);
+        relative.setStopPolicy(policy);
+        relative.getDistanceDistribution();
+        assertTrue(relative.getNodesTouched().size() < full.getNodesTouched().size());
+    }
+
+    @Test
+    public void testIndependentRuns(){
+        ImmutableGraph graph = Graphs.getErdosRenyiGraph(1000, 0.003, 23L);
+        final int RUNS = 4;
+
+        HyperBall interleaved = new HyperBall(graph, NUMBER_OF_BITS, 2);
+        interleaved.setNumberOfRuns(RUNS);
+        interleaved.setSeed(100);
+        interleaved.getDistanceDistribution();
+        DistanceDistributionEstimate estimate = interleaved.getDistanceDistributionEstimate();
+        assertEquals(RUNS, estimate.getNumberOfRuns());
+
+        // Every interleaved run is exactly a separate run with the same seed. It may only continue with zero pairs
+        // while other runs have not converged yet.
+        for (int r = 0; r < RUNS; r++){
+            HyperBall single = new HyperBall(graph, NUMBER_OF_BITS);
+            single.setSeed(100 + r);
+            DistanceDistribution expected = single.getDistanceDistribution();
+            for (int distance = 1; distance <= interleaved.getNodesTouched().size(); distance++){
+                assertEquals(expected.getValue(distance), estimate.getRun(r).getValue(distance));
+            }
+        }
+
+        assertTrue("Seeded runs should differ", estimate.getStandardError(2) > 0);
+        DistanceDistributionEstimate.Estimate average = estimate.getAverageDistance();
+        assertTrue(average.getStandardError() > 0);
+        assertTrue(average.getLowerBound() < average.getValue() && average.getValue() < average.getUpperBound());
+    }
+
+    @Test
+    public void testJackknifeOfMeanIsStandardError(){
+        DistanceDistribution[] runs = new DistanceDistribution[3];
+        long[] pairs = {10, 20, 60};
+        for (int r = 0; r < runs.length; r++){
+            runs[r] = new DistanceDistribution();
+            runs[r].setNumberOfPairs(1, pairs[r]);
+        }
+        DistanceDistributionEstimate estimate = new DistanceDistributionEstimate(runs);
+
+        // Sample standard deviation 26.46 over sqrt(3) runs.
+        assertEquals(30, estimate.getMeanNumberOfPairs(1), 1e-9);
+        assertEquals(Math.sqrt(700.0 / 3), estimate.getStandardError(1), 1e-9);
+        assertEquals(estimate.getStandardError(1), estimate.getReachablePairs().getStandardError(), 1e-9);
+    }
+
+    private static int[][] pathArcs(int nodes){
+        int[][] arcs = new int[nodes - 1][];
+        for (int node = 0; node < nodes - 1; node++){
+            arcs[node] = new int[] {node, node + 1};
+        }
+        return arcs;
+    }
+}